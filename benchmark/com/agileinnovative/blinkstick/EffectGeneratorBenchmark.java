@@ -0,0 +1,85 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Measures the time to render one frame with each {@link EffectGenerator} on a single thread.
+ *
+ * Usage: java com.agileinnovative.blinkstick.EffectGeneratorBenchmark [rainbow|chase|fire|twinkle|breathe ...] [-size LEDs]
+ *
+ * Without generator names all generators are measured. The default size is 5000 LEDs.
+ */
+public class EffectGeneratorBenchmark {
+
+	private static final String[] NAMES = { "rainbow", "chase", "fire", "twinkle", "breathe" };
+
+	private static final long RUN_NANOS = 500000000L;
+
+	public static void main(String[] args)
+	{
+		int size = 5000;
+		StringBuilder selected = new StringBuilder();
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-size") && i + 1 < args.length)
+			{
+				size = Integer.parseInt(args[++i]);
+			}
+			else
+			{
+				selected.append(' ').append(args[i]).append(' ');
+			}
+		}
+
+		for (int i = 0; i < NAMES.length; i++)
+		{
+			if (selected.length() == 0 || selected.indexOf(" " + NAMES[i] + " ") >= 0)
+			{
+				run(NAMES[i], create(NAMES[i], size), size);
+			}
+		}
+	}
+
+	private static EffectGenerator create(String name, int size)
+	{
+		if (name.equals("rainbow"))
+		{
+			return new EffectGenerator.Rainbow(size, 2, 3000);
+		}
+		if (name.equals("chase"))
+		{
+			return new EffectGenerator.Chase(size, 0xFF0000, 0x000010, 20, 2000);
+		}
+		if (name.equals("fire"))
+		{
+			// Tick every frame so every LED steps each time
+			return new EffectGenerator.Fire(size, 40, 16);
+		}
+		if (name.equals("twinkle"))
+		{
+			return new EffectGenerator.Twinkle(size, EffectGenerator.getRainbowPalette(), 16, 24, 16);
+		}
+		return new EffectGenerator.Breathe(size, 0x40FF80, 4000);
+	}
+
+	private static void run(String name, EffectGenerator generator, int size)
+	{
+		byte[] grb = new byte[size * 3];
+		long time = 0;
+
+		for (int warmup = 0; warmup < 2000; warmup++)
+		{
+			generator.render(grb, 0, 0, size, time += 16000000L);
+		}
+
+		long start = System.nanoTime();
+		int frames = 0;
+		while (System.nanoTime() - start < RUN_NANOS)
+		{
+			generator.render(grb, 0, 0, size, time += 16000000L);
+			frames++;
+		}
+		double perFrame = (System.nanoTime() - start) / (double) frames;
+
+		System.out.println(String.format("%-8s %6d LEDs  %8.1f us/frame  %5.2f ns/LED", name, size, perFrame / 1000, perFrame / size));
+	}
+}
@@ -0,0 +1,108 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Measures parallel rendering of {@link VirtualCanvas} to pick {@link VirtualCanvas#DEFAULT_THRESHOLD}.
+ *
+ * Renders a cheap and an expensive effect over canvases of 1000 to 10000 LEDs with 1 to N threads
+ * and several chunk sizes and prints the time per frame. It then measures the cost of handing a
+ * chunk to another thread and the cost of rendering one LED, and prints the smallest chunk which
+ * keeps the hand over below a tenth of the work for the cheap effect.
+ *
+ * Usage: java com.agileinnovative.blinkstick.VirtualCanvasBenchmark [max threads]
+ */
+public class VirtualCanvasBenchmark {
+
+	private static final int[] SIZES = { 1000, 2000, 5000, 10000 };
+
+	private static final int[] THRESHOLDS = { 64, 128, 256, 512, 1024, 2048 };
+
+	private static final long RUN_NANOS = 200000000L;
+
+	public static void main(String[] args)
+	{
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(2, Runtime.getRuntime().availableProcessors());
+
+		System.out.println("Cores: " + Runtime.getRuntime().availableProcessors() + ", threads: 1.." + maxThreads);
+
+		for (int threads = 1; threads <= maxThreads; threads++)
+		{
+			ParallelRange pool = new ParallelRange(threads);
+
+			for (int s = 0; s < SIZES.length; s++)
+			{
+				int size = SIZES[s];
+				VirtualCanvas canvas = new VirtualCanvas(size);
+				canvas.setParallelRange(pool);
+
+				EffectGenerator cheap = new EffectGenerator.Rainbow(size, 2, 3000);
+				EffectGenerator expensive = new EffectGenerator.Fire(size, 40, 1);
+
+				StringBuilder line = new StringBuilder();
+				line.append(String.format("threads %2d  size %5d  us/frame rainbow|fire:", threads, size));
+				for (int t = 0; t < THRESHOLDS.length; t++)
+				{
+					canvas.setThreshold(THRESHOLDS[t]);
+					line.append(String.format("  %d: %.1f|%.1f", THRESHOLDS[t], measure(canvas, cheap) / 1000.0, measure(canvas, expensive) / 1000.0));
+				}
+				System.out.println(line);
+			}
+
+			pool.shutdown();
+		}
+
+		// Cost model for the threshold: hand over per chunk against rendering per LED
+		int size = SIZES[SIZES.length - 1];
+		VirtualCanvas canvas = new VirtualCanvas(size);
+		canvas.setParallelRange(new ParallelRange(1));
+		canvas.setThreshold(size);
+		double perLed = measure(canvas, new EffectGenerator.Rainbow(size, 2, 3000)) / size;
+
+		ParallelRange pool = new ParallelRange(2);
+		final int chunks = 64;
+		ParallelRange.Body empty = new ParallelRange.Body() {
+			public void run(int from, int to) {
+			}
+		};
+		long start = System.nanoTime();
+		int runs = 0;
+		while (System.nanoTime() - start < RUN_NANOS)
+		{
+			pool.run(0, chunks, 1, empty);
+			runs++;
+		}
+		double perChunk = (System.nanoTime() - start) / (double) runs / chunks;
+		pool.shutdown();
+
+		System.out.println(String.format("Rainbow %.2f ns per LED, hand over %.0f ns per chunk, threshold for 10%% overhead: %d LEDs",
+				perLed, perChunk, (int) Math.ceil(perChunk / (0.1 * perLed))));
+	}
+
+	/**
+	 * @return Median nanoseconds per frame over several rounds
+	 */
+	private static double measure(VirtualCanvas canvas, EffectGenerator effect)
+	{
+		long time = 0;
+		double[] rounds = new double[5];
+
+		for (int warmup = 0; warmup < 200; warmup++)
+		{
+			canvas.render(effect, time += 16000000L);
+		}
+
+		for (int r = 0; r < rounds.length; r++)
+		{
+			long start = System.nanoTime();
+			int frames = 0;
+			while (System.nanoTime() - start < RUN_NANOS / rounds.length)
+			{
+				canvas.render(effect, time += 16000000L);
+				frames++;
+			}
+			rounds[r] = (System.nanoTime() - start) / (double) frames;
+		}
+
+		java.util.Arrays.sort(rounds);
+		return rounds[rounds.length / 2];
+	}
+}
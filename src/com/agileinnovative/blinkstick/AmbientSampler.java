@@ -0,0 +1,487 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Maps an ARGB pixel buffer, such as a video frame or a screen capture, onto LEDs by averaging the
+ * color of a zone of the image for every LED.
+ *
+ * Two sampling modes are available. {@link #MODE_INTEGRAL} builds an integral image of the whole
+ * buffer, split across cores with {@link ParallelRange}, and then averages every zone exactly in
+ * constant time. {@link #MODE_SUBSAMPLE} reads only every n-th pixel in both directions inside each
+ * zone, which is cheaper for few small zones on a large image. All buffers are reused between calls.
+ */
+public class AmbientSampler {
+
+	/**
+	 * Average zones exactly using an integral image
+	 */
+	public static final int MODE_INTEGRAL = 0;
+
+	/**
+	 * Average zones from every n-th pixel in both directions
+	 */
+	public static final int MODE_SUBSAMPLE = 1;
+
+	/**
+	 * Approximate number of pixels processed by one parallel task
+	 */
+	private static final int PIXELS_PER_TASK = 32 * 1024;
+
+	/**
+	 * Zone layout in relative image coordinates, zone index is the LED index
+	 */
+	public static class Layout {
+		private final float[] left;
+		private final float[] top;
+		private final float[] right;
+		private final float[] bottom;
+
+		/**
+		 * Create layout with all zones covering the whole image
+		 *
+		 * @param zoneCount	Number of zones
+		 */
+		public Layout(int zoneCount)
+		{
+			left = new float[zoneCount];
+			top = new float[zoneCount];
+			right = new float[zoneCount];
+			bottom = new float[zoneCount];
+
+			for (int i = 0; i < zoneCount; i++)
+			{
+				setZone(i, 0, 0, 1, 1);
+			}
+		}
+
+		/**
+		 * @return Number of zones
+		 */
+		public int getZoneCount()
+		{
+			return left.length;
+		}
+
+		/**
+		 * Set the area of a zone in relative coordinates where 0 is the left or top edge of the image and 1 is the right or bottom edge
+		 *
+		 * @param index	Zone index
+		 * @param l	Left edge 0..1
+		 * @param t	Top edge 0..1
+		 * @param r	Right edge 0..1
+		 * @param b	Bottom edge 0..1
+		 */
+		public void setZone(int index, float l, float t, float r, float b)
+		{
+			left[index] = l;
+			top[index] = t;
+			right[index] = r;
+			bottom[index] = b;
+		}
+
+		/**
+		 * Create layout of equal columns from left to right
+		 *
+		 * @param count	Number of zones
+		 * @param t	Top edge of the zones 0..1
+		 * @param b	Bottom edge of the zones 0..1
+		 * @return New layout
+		 */
+		public static Layout columns(int count, float t, float b)
+		{
+			Layout layout = new Layout(count);
+			for (int i = 0; i < count; i++)
+			{
+				layout.setZone(i, (float) i / count, t, (float) (i + 1) / count, b);
+			}
+			return layout;
+		}
+
+		/**
+		 * Create layout of zones around the edges of the image going clockwise from the top left corner,
+		 * as used for LEDs mounted behind a screen
+		 *
+		 * @param horizontal	Number of zones along the top and bottom edges
+		 * @param vertical	Number of zones along the left and right edges
+		 * @param depth	How far zones reach into the image 0..0.5
+		 * @return New layout
+		 */
+		public static Layout border(int horizontal, int vertical, float depth)
+		{
+			Layout layout = new Layout(horizontal * 2 + vertical * 2);
+			int index = 0;
+
+			for (int i = 0; i < horizontal; i++)
+			{
+				layout.setZone(index++, (float) i / horizontal, 0, (float) (i + 1) / horizontal, depth);
+			}
+			for (int i = 0; i < vertical; i++)
+			{
+				layout.setZone(index++, 1 - depth, (float) i / vertical, 1, (float) (i + 1) / vertical);
+			}
+			for (int i = horizontal - 1; i >= 0; i--)
+			{
+				layout.setZone(index++, (float) i / horizontal, 1 - depth, (float) (i + 1) / horizontal, 1);
+			}
+			for (int i = vertical - 1; i >= 0; i--)
+			{
+				layout.setZone(index++, 0, (float) i / vertical, depth, (float) (i + 1) / vertical);
+			}
+
+			return layout;
+		}
+	}
+
+	private final Layout layout;
+
+	private final int zoneCount;
+
+	private ParallelRange parallel = ParallelRange.getDefault();
+
+	private int mode = MODE_INTEGRAL;
+
+	private int step = 4;
+
+	/**
+	 * Zone rectangles in pixels for the current image size, 4 values per zone: x0, y0, x1, y1 (exclusive)
+	 */
+	private final int[] rects;
+
+	private int rectWidth = -1;
+
+	private int rectHeight = -1;
+
+	/**
+	 * Integral image per color component, (width + 1) * (height + 1) values.
+	 * Sums are allowed to overflow, differences stay correct as long as a zone sums to less than 2^32.
+	 */
+	private int[] sumR;
+	private int[] sumG;
+	private int[] sumB;
+
+	/**
+	 * Resulting colors per zone
+	 */
+	private final int[] colors;
+
+	private int[] pixels;
+	private int offset;
+	private int scanline;
+	private int width;
+	private int height;
+
+	private final ParallelRange.Body rowPrefix = new ParallelRange.Body() {
+		public void run(int from, int to) {
+			buildRows(from, to);
+		}
+	};
+
+	private final ParallelRange.Body columnSum = new ParallelRange.Body() {
+		public void run(int from, int to) {
+			accumulateColumns(from, to);
+		}
+	};
+
+	private final ParallelRange.Body zones = new ParallelRange.Body() {
+		public void run(int from, int to) {
+			sampleZones(from, to);
+		}
+	};
+
+	/**
+	 * Create sampler for the zone layout
+	 *
+	 * @param layout	Zone layout, one zone for every LED. Later changes to the layout are not picked up.
+	 */
+	public AmbientSampler(Layout layout)
+	{
+		this.layout = layout;
+		this.zoneCount = layout.getZoneCount();
+		this.rects = new int[zoneCount * 4];
+		this.colors = new int[zoneCount];
+	}
+
+	/**
+	 * Set the sampling mode
+	 *
+	 * @param mode	{@link #MODE_INTEGRAL} or {@link #MODE_SUBSAMPLE}
+	 */
+	public void setMode(int mode)
+	{
+		this.mode = mode;
+	}
+
+	/**
+	 * Set the distance between sampled pixels in {@link #MODE_SUBSAMPLE}
+	 *
+	 * @param step	1 to read every pixel, 2 for every other pixel in both directions and so on
+	 */
+	public void setSubsampleStep(int step)
+	{
+		this.step = Math.max(1, step);
+	}
+
+	/**
+	 * Set the threads used for sampling
+	 *
+	 * @param parallel	Thread pool or null to sample on the calling thread only
+	 */
+	public void setParallelRange(ParallelRange parallel)
+	{
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Average every zone of the image
+	 *
+	 * @param pixels	Image in ARGB format, alpha is ignored
+	 * @param offset	Index of the first pixel
+	 * @param scanline	Distance between rows in the array
+	 * @param width	Image width
+	 * @param height	Image height
+	 * @return Color of every zone as int, valid until the next call
+	 */
+	public int[] sample(int[] pixels, int offset, int scanline, int width, int height)
+	{
+		if (width <= 0 || height <= 0)
+		{
+			throw new IllegalArgumentException("Image must not be empty");
+		}
+
+		this.pixels = pixels;
+		this.offset = offset;
+		this.scanline = scanline;
+		this.width = width;
+		this.height = height;
+
+		if (width != rectWidth || height != rectHeight)
+		{
+			compileRects(width, height);
+		}
+
+		try
+		{
+			if (mode == MODE_INTEGRAL)
+			{
+				int size = (width + 1) * (height + 1);
+				if (sumR == null || sumR.length < size)
+				{
+					sumR = new int[size];
+					sumG = new int[size];
+					sumB = new int[size];
+				}
+
+				run(0, height, Math.max(1, PIXELS_PER_TASK / width), rowPrefix);
+				run(0, width + 1, Math.max(1, PIXELS_PER_TASK / height), columnSum);
+			}
+
+			run(0, zoneCount, zoneThreshold(), zones);
+		}
+		finally
+		{
+			this.pixels = null;
+		}
+
+		return colors;
+	}
+
+	/**
+	 * Average every zone of the image straight into a frame. LED index is the zone index.
+	 *
+	 * @param pixels	Image in ARGB format, alpha is ignored
+	 * @param width	Image width
+	 * @param height	Image height
+	 * @param frame	Frame to receive the colors of the first zones which fit into it
+	 */
+	public void sample(int[] pixels, int width, int height, LedFrame frame)
+	{
+		int[] result = sample(pixels, 0, width, width, height);
+
+		int count = Math.min(frame.getLedCount(), zoneCount);
+		for (int i = 0; i < count; i++)
+		{
+			frame.setColor(i, result[i]);
+		}
+	}
+
+	private void run(int from, int to, int threshold, ParallelRange.Body body)
+	{
+		if (parallel != null)
+		{
+			parallel.run(from, to, threshold, body);
+		}
+		else
+		{
+			body.run(from, to);
+		}
+	}
+
+	private int zoneThreshold()
+	{
+		if (mode == MODE_INTEGRAL)
+		{
+			// Four lookups per zone, not worth splitting
+			return zoneCount;
+		}
+
+		long area = (long) width * height / step / step;
+		long perZone = Math.max(1, area / Math.max(1, zoneCount));
+		return (int) Math.max(1, PIXELS_PER_TASK / perZone);
+	}
+
+	private void compileRects(int w, int h)
+	{
+		for (int i = 0; i < zoneCount; i++)
+		{
+			int x0 = clamp(Math.round(layout.left[i] * w), 0, w);
+			int y0 = clamp(Math.round(layout.top[i] * h), 0, h);
+			int x1 = clamp(Math.round(layout.right[i] * w), 0, w);
+			int y1 = clamp(Math.round(layout.bottom[i] * h), 0, h);
+
+			// Every zone covers at least one pixel
+			if (x1 <= x0)
+			{
+				x0 = Math.min(x0, w - 1);
+				x1 = x0 + 1;
+			}
+			if (y1 <= y0)
+			{
+				y0 = Math.min(y0, h - 1);
+				y1 = y0 + 1;
+			}
+
+			rects[i * 4] = x0;
+			rects[i * 4 + 1] = y0;
+			rects[i * 4 + 2] = x1;
+			rects[i * 4 + 3] = y1;
+		}
+
+		rectWidth = w;
+		rectHeight = h;
+	}
+
+	private static int clamp(int value, int min, int max)
+	{
+		return value < min ? min : (value > max ? max : value);
+	}
+
+	/**
+	 * Fill integral rows with running sums along each row
+	 */
+	private void buildRows(int from, int to)
+	{
+		int stride = width + 1;
+
+		for (int y = from; y < to; y++)
+		{
+			int src = offset + y * scanline;
+			int dst = (y + 1) * stride;
+			int r = 0, g = 0, b = 0;
+
+			sumR[dst] = 0;
+			sumG[dst] = 0;
+			sumB[dst] = 0;
+
+			for (int x = 0; x < width; x++)
+			{
+				int c = pixels[src + x];
+				r += (c >> 16) & 0xFF;
+				g += (c >> 8) & 0xFF;
+				b += c & 0xFF;
+
+				dst++;
+				sumR[dst] = r;
+				sumG[dst] = g;
+				sumB[dst] = b;
+			}
+		}
+	}
+
+	/**
+	 * Accumulate integral rows downwards for a band of columns
+	 */
+	private void accumulateColumns(int from, int to)
+	{
+		int stride = width + 1;
+
+		for (int x = from; x < to; x++)
+		{
+			sumR[x] = 0;
+			sumG[x] = 0;
+			sumB[x] = 0;
+		}
+
+		for (int y = 1; y <= height; y++)
+		{
+			int row = y * stride;
+			int above = row - stride;
+
+			for (int x = from; x < to; x++)
+			{
+				sumR[row + x] += sumR[above + x];
+				sumG[row + x] += sumG[above + x];
+				sumB[row + x] += sumB[above + x];
+			}
+		}
+	}
+
+	private void sampleZones(int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			int x0 = rects[i * 4];
+			int y0 = rects[i * 4 + 1];
+			int x1 = rects[i * 4 + 2];
+			int y1 = rects[i * 4 + 3];
+
+			if (mode == MODE_INTEGRAL)
+			{
+				colors[i] = integralAverage(x0, y0, x1, y1);
+			}
+			else
+			{
+				colors[i] = subsampleAverage(x0, y0, x1, y1);
+			}
+		}
+	}
+
+	private int integralAverage(int x0, int y0, int x1, int y1)
+	{
+		int stride = width + 1;
+		int a = y0 * stride + x0;
+		int b = y0 * stride + x1;
+		int c = y1 * stride + x0;
+		int d = y1 * stride + x1;
+		long area = (long) (x1 - x0) * (y1 - y0);
+
+		int r = (int) (((sumR[d] - sumR[b] - sumR[c] + sumR[a]) & 0xFFFFFFFFL) / area);
+		int g = (int) (((sumG[d] - sumG[b] - sumG[c] + sumG[a]) & 0xFFFFFFFFL) / area);
+		int bl = (int) (((sumB[d] - sumB[b] - sumB[c] + sumB[a]) & 0xFFFFFFFFL) / area);
+
+		return (255 << 24) | (r << 16) | (g << 8) | bl;
+	}
+
+	private int subsampleAverage(int x0, int y0, int x1, int y1)
+	{
+		long r = 0, g = 0, b = 0;
+		int count = 0;
+
+		// Start half a step in so that small zones are sampled around their centre
+		int startX = x0 + Math.min(step / 2, (x1 - x0 - 1) / 2);
+		int startY = y0 + Math.min(step / 2, (y1 - y0 - 1) / 2);
+
+		for (int y = startY; y < y1; y += step)
+		{
+			int row = offset + y * scanline;
+			for (int x = startX; x < x1; x += step)
+			{
+				int c = pixels[row + x];
+				r += (c >> 16) & 0xFF;
+				g += (c >> 8) & 0xFF;
+				b += c & 0xFF;
+				count++;
+			}
+		}
+
+		return (255 << 24) | ((int) (r / count) << 16) | ((int) (g / count) << 8) | (int) (b / count);
+	}
+}
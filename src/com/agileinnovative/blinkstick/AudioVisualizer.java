@@ -0,0 +1,309 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Streaming pipeline which turns PCM audio blocks into LED frames.
+ *
+ * Samples are appended to a ring buffer and every processed block runs a {@link RealFft} over the
+ * most recent window. Spectrum bins are grouped into logarithmically spaced bands, one band per LED,
+ * and band levels are smoothed with separate attack and release rates while peaks decay linearly.
+ * Nothing is allocated per block. Frames are stamped with the time the block arrived and handed to
+ * the device {@link BlinkStickWriter}, whose latency histogram then shows the delay from PCM block
+ * to USB submit.
+ */
+public class AudioVisualizer {
+
+	private final RealFft fft;
+
+	private final int ledCount;
+
+	private final float[] samples;
+
+	private int writeIndex;
+
+	private final float[] magnitudes;
+
+	private final int[] bandStart;
+
+	private final int[] bandEnd;
+
+	private final float[] levels;
+
+	private final float[] peaks;
+
+	private final int[] palette;
+
+	private final LedFrame frame;
+
+	private BlinkStickWriter writer;
+
+	private float attack = 0.6f;
+
+	private float release = 0.15f;
+
+	private float peakDecayPerSecond = 0.8f;
+
+	private float floorDb = -60f;
+
+	private long lastBlockNanos;
+
+	/**
+	 * Create pipeline with bands from 40 Hz to 16 kHz
+	 *
+	 * @param ledCount	Number of LEDs, one band per LED 1..64
+	 * @param sampleRate	Sample rate of the PCM data in Hz
+	 * @param fftSize	Transform size, power of two such as 1024
+	 */
+	public AudioVisualizer(int ledCount, int sampleRate, int fftSize)
+	{
+		this(ledCount, sampleRate, fftSize, 40, 16000);
+	}
+
+	/**
+	 * Create pipeline
+	 *
+	 * @param ledCount	Number of LEDs, one band per LED 1..64
+	 * @param sampleRate	Sample rate of the PCM data in Hz
+	 * @param fftSize	Transform size, power of two such as 1024
+	 * @param minFrequency	Lower edge of the first band in Hz
+	 * @param maxFrequency	Upper edge of the last band in Hz
+	 */
+	public AudioVisualizer(int ledCount, int sampleRate, int fftSize, float minFrequency, float maxFrequency)
+	{
+		this.fft = new RealFft(fftSize);
+		this.ledCount = ledCount;
+		this.frame = new LedFrame(ledCount);
+
+		samples = new float[fftSize];
+		magnitudes = new float[fft.getBinCount()];
+		bandStart = new int[ledCount];
+		bandEnd = new int[ledCount];
+		levels = new float[ledCount];
+		peaks = new float[ledCount];
+		palette = new int[ledCount];
+
+		maxFrequency = Math.min(maxFrequency, sampleRate / 2f);
+		float binWidth = (float) sampleRate / fftSize;
+		double ratio = maxFrequency / minFrequency;
+
+		for (int i = 0; i < ledCount; i++)
+		{
+			double low = minFrequency * Math.pow(ratio, (double) i / ledCount);
+			double high = minFrequency * Math.pow(ratio, (double) (i + 1) / ledCount);
+
+			int start = Math.max(1, (int) Math.round(low / binWidth));
+			int end = Math.max(start + 1, (int) Math.round(high / binWidth));
+
+			bandStart[i] = Math.min(start, magnitudes.length - 1);
+			bandEnd[i] = Math.min(end, magnitudes.length);
+
+			// Low bands red through to high bands violet
+			palette[i] = hueToColor(ledCount > 1 ? 0.8f * i / (ledCount - 1) : 0);
+		}
+	}
+
+	/**
+	 * Send frames to a device writer after every processed block
+	 *
+	 * @param blinkStick	Device to send frames to, null to only return frames from process
+	 */
+	public void setOutput(BlinkStick blinkStick)
+	{
+		writer = blinkStick != null ? blinkStick.getWriter() : null;
+	}
+
+	/**
+	 * Set output channel of the frames
+	 *
+	 * @param channel	Channel (0 - R, 1 - G, 2 - B)
+	 */
+	public void setChannel(int channel)
+	{
+		frame.setChannel(channel);
+	}
+
+	/**
+	 * Set how fast levels follow the spectrum
+	 *
+	 * @param attack	Fraction of a rising level applied per block 0..1
+	 * @param release	Fraction of a falling level applied per block 0..1
+	 */
+	public void setSmoothing(float attack, float release)
+	{
+		this.attack = attack;
+		this.release = release;
+	}
+
+	/**
+	 * Set how fast peaks fall back
+	 *
+	 * @param perSecond	Level drop per second, 1 is from full brightness to off in a second
+	 */
+	public void setPeakDecay(float perSecond)
+	{
+		this.peakDecayPerSecond = perSecond;
+	}
+
+	/**
+	 * Set the quietest level which still lights an LED
+	 *
+	 * @param db	Level in dB relative to full scale, for example -60
+	 */
+	public void setFloor(float db)
+	{
+		this.floorDb = db;
+	}
+
+	/**
+	 * Set the color of the LED for a band, brightness is scaled by the band level
+	 *
+	 * @param index	Index of the LED
+	 * @param value	color as int
+	 */
+	public void setColor(int index, int value)
+	{
+		palette[index] = value;
+	}
+
+	/**
+	 * Process block of 16 bit PCM samples
+	 *
+	 * @param pcm	Mono samples
+	 * @param offset	Index of the first sample
+	 * @param length	Number of samples
+	 * @return Frame with current levels, reused between calls
+	 */
+	public LedFrame process(short[] pcm, int offset, int length)
+	{
+		long arrived = System.nanoTime();
+		int mask = samples.length - 1;
+
+		for (int i = 0; i < length; i++)
+		{
+			samples[writeIndex] = pcm[offset + i] * (1f / 32768f);
+			writeIndex = (writeIndex + 1) & mask;
+		}
+
+		return analyze(arrived);
+	}
+
+	/**
+	 * Process block of floating point PCM samples
+	 *
+	 * @param pcm	Mono samples in the range of [-1..1]
+	 * @param offset	Index of the first sample
+	 * @param length	Number of samples
+	 * @return Frame with current levels, reused between calls
+	 */
+	public LedFrame process(float[] pcm, int offset, int length)
+	{
+		long arrived = System.nanoTime();
+		int mask = samples.length - 1;
+
+		for (int i = 0; i < length; i++)
+		{
+			samples[writeIndex] = pcm[offset + i];
+			writeIndex = (writeIndex + 1) & mask;
+		}
+
+		return analyze(arrived);
+	}
+
+	/**
+	 * Get smoothed level of a band
+	 *
+	 * @param index	Index of the LED
+	 * @return Level 0..1
+	 */
+	public float getLevel(int index)
+	{
+		return levels[index];
+	}
+
+	/**
+	 * Get peak level of a band
+	 *
+	 * @param index	Index of the LED
+	 * @return Level 0..1
+	 */
+	public float getPeak(int index)
+	{
+		return peaks[index];
+	}
+
+	private LedFrame analyze(long arrived)
+	{
+		fft.magnitudes(samples, writeIndex, magnitudes);
+
+		float elapsed = lastBlockNanos > 0 ? (arrived - lastBlockNanos) / 1e9f : 0;
+		lastBlockNanos = arrived;
+		float decay = peakDecayPerSecond * elapsed;
+		float range = -floorDb;
+
+		for (int i = 0; i < ledCount; i++)
+		{
+			float magnitude = 0;
+			for (int bin = bandStart[i]; bin < bandEnd[i]; bin++)
+			{
+				if (magnitudes[bin] > magnitude)
+				{
+					magnitude = magnitudes[bin];
+				}
+			}
+
+			float target = 0;
+			if (magnitude > 0)
+			{
+				float db = 20f * (float) Math.log10(magnitude);
+				target = (db - floorDb) / range;
+				target = target < 0 ? 0 : (target > 1 ? 1 : target);
+			}
+
+			float level = levels[i];
+			level += (target - level) * (target > level ? attack : release);
+			levels[i] = level;
+
+			float peak = peaks[i] - decay;
+			peaks[i] = peak > level ? peak : level;
+
+			int brightness = (int) (peaks[i] * 256);
+			if (brightness > 256)
+			{
+				brightness = 256;
+			}
+
+			int c = palette[i];
+			frame.setColor(i,
+					(((c >> 16) & 0xFF) * brightness) >> 8,
+					(((c >> 8) & 0xFF) * brightness) >> 8,
+					((c & 0xFF) * brightness) >> 8);
+		}
+
+		frame.setTimestamp(arrived);
+
+		if (writer != null)
+		{
+			writer.submit(frame);
+		}
+
+		return frame;
+	}
+
+	private static int hueToColor(float hue)
+	{
+		float h = hue * 6;
+		int sector = (int) h;
+		float f = h - sector;
+		int up = (int) (255 * f);
+		int down = 255 - up;
+
+		switch (sector)
+		{
+		case 0: return (255 << 24) | (255 << 16) | (up << 8);
+		case 1: return (255 << 24) | (down << 16) | (255 << 8);
+		case 2: return (255 << 24) | (255 << 8) | up;
+		case 3: return (255 << 24) | (down << 8) | 255;
+		case 4: return (255 << 24) | (up << 16) | 255;
+		default: return (255 << 24) | (255 << 16) | down;
+		}
+	}
+}
@@ -1,8 +1,7 @@
 package com.agileinnovative.blinkstick;
 
+import java.nio.ByteBuffer;
 import java.util.Hashtable;
-import java.util.Random;
-import android.hardware.usb.UsbConstants;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 
@@ -14,15 +13,71 @@ public class BlinkStick {
 	protected static final int STD_USB_REQUEST_GET_DESCRIPTOR = 0x06;
 	protected static final int LIBUSB_DT_STRING = 0x03;
 
+	/**
+	 * Notified when a report transfer fails
+	 */
+	public interface FailureListener {
+		/**
+		 * Called once for the first failed transfer. Reports are not sent to the device until a new
+		 * transport is assigned, but the state they set is kept and replayed on reconnect.
+		 *
+		 * @param blinkStick	Device which failed
+		 * @param result	Negative transfer result
+		 */
+		void onTransferFailed(BlinkStick blinkStick, int result);
+	}
+
 	/** 
 	 * USB device object to communicate directly with BlinkStick
 	 */
 	private UsbDevice device = null;
 
 	/** 
-	 * USB connection for communicating with BlinkStick
+	 * Transport for communicating with BlinkStick
+	 */
+	private BlinkStickTransport transport;
+
+	/** 
+	 * Optional recorder of sent reports
+	 */
+	private ReportTrace reportTrace;
+
+	/** 
+	 * Last color data report of every channel as sent, replayed after reconnecting
+	 */
+	private final byte[][] shadowFrames = new byte[3][];
+
+	/** 
+	 * Last single color report, replayed after reconnecting unless channel 0 has color data
+	 */
+	private byte[] shadowColor;
+
+	/** 
+	 * Last mode set or read, -1 if not known
+	 */
+	private volatile int shadowMode = -1;
+
+	/** 
+	 * Set once the mode was set or read on the current transport, the mode persists on the device across replugs
+	 */
+	private volatile boolean modeKnown;
+
+	/** 
+	 * Incremented with every change of the shadow state
+	 */
+	private long shadowVersion;
+
+	private FailureListener failureListener;
+
+	/** 
+	 * Set after a failed transfer while a failure listener is assigned, reports are not sent until a new transport is assigned
+	 */
+	private boolean failed;
+
+	/** 
+	 * Generator for random colors
 	 */
-	private UsbDeviceConnection connection;
+	private final FastRandom random = new FastRandom();
 
 	/** 
 	 * Cached manufacturer name
@@ -34,6 +89,11 @@ public class BlinkStick {
 	 */
 	private String productName = null;
 
+	/** 
+	 * Cached serial number
+	 */
+	private String serial = null;
+
 	/** 
 	 * Assign UsbDevice
 	 * 
@@ -60,7 +120,245 @@ public class BlinkStick {
 	 */
 	public void setConnection(UsbDeviceConnection con)
 	{
-		connection = con;
+		setTransport(con != null ? new UsbTransport(con) : null);
+	}
+
+	/** 
+	 * Assign transport used to exchange reports with the device
+	 * 
+	 * @param transport	Transport to communicate with BlinkStick device
+	 */
+	public void setTransport(BlinkStickTransport transport)
+	{
+		synchronized (shadowFrames)
+		{
+			this.transport = transport;
+			failed = false;
+		}
+		modeKnown = false;
+		synchronized (this)
+		{
+			// Writer of a closed connection stays shut down, the new connection gets its own
+			if (writer != null && writer.isShutdown())
+			{
+				writer = null;
+			}
+		}
+		serial = null;
+		infoBlockCache[0] = null;
+		infoBlockCache[1] = null;
+		firstFrameSent = false;
+	}
+
+	/** 
+	 * Stop the background writer for good and close the connection
+	 */
+	public void close()
+	{
+		BlinkStickWriter w;
+		synchronized (this)
+		{
+			w = writer;
+		}
+
+		if (w != null)
+		{
+			w.shutdown();
+		}
+
+		if (transport != null)
+		{
+			transport.close();
+			transport = null;
+		}
+	}
+
+	/** 
+	 * Value of {@link System#nanoTime()} when opening of the connection was requested, 0 if not measured
+	 */
+	private long openRequestedAt;
+
+	/** 
+	 * Histogram to receive the time from open request to the first frame sent
+	 */
+	private LatencyHistogram firstFrameHistogram;
+
+	private boolean firstFrameSent;
+
+	/** 
+	 * Set listener notified when a transfer fails. With a listener assigned the device stops sending
+	 * after the first failure instead of waiting for every following transfer to time out.
+	 * 
+	 * @param listener	Listener or null to keep sending after failures
+	 */
+	public void setFailureListener(FailureListener listener)
+	{
+		failureListener = listener;
+	}
+
+	/** 
+	 * Check if a transfer failed since the transport was assigned
+	 * 
+	 * @return true if reports are not sent until the device is reconnected
+	 */
+	public boolean isFailed()
+	{
+		synchronized (shadowFrames)
+		{
+			return failed;
+		}
+	}
+
+	/** 
+	 * Take over the open connection of another instance for the same device and restore the state
+	 * of this instance on it: mode, single color and color data of all channels. Reports sent while
+	 * the state is restored are not lost, they are included in the restored state.
+	 * 
+	 * @param source	Instance with the newly opened connection, it is left without connection
+	 */
+	void reconnect(BlinkStick source)
+	{
+		BlinkStickTransport t = source.transport;
+		source.transport = null;
+
+		BlinkStickTransport old;
+		while (true)
+		{
+			long version;
+			byte[][] reports;
+			synchronized (shadowFrames)
+			{
+				version = shadowVersion;
+				reports = copyShadow();
+			}
+
+			for (int i = 0; i < reports.length; i++)
+			{
+				t.sendFeatureReport(reports[i], reports[i].length);
+			}
+
+			synchronized (shadowFrames)
+			{
+				if (version != shadowVersion)
+				{
+					continue;
+				}
+
+				old = transport;
+				device = source.device;
+				transport = t;
+				failed = false;
+				break;
+			}
+		}
+
+		infoBlockCache[0] = null;
+		infoBlockCache[1] = null;
+
+		if (old != null && old != t)
+		{
+			old.close();
+		}
+	}
+
+	/** 
+	 * Copy of the reports which restore the device state, called with the shadow lock held
+	 */
+	private byte[][] copyShadow()
+	{
+		byte[][] reports = new byte[5][];
+		int count = 0;
+
+		if (shadowMode >= 0)
+		{
+			reports[count++] = new byte[] {4, (byte) shadowMode};
+		}
+
+		if (shadowColor != null && shadowFrames[0] == null)
+		{
+			reports[count++] = shadowColor.clone();
+		}
+
+		for (int channel = 0; channel < shadowFrames.length; channel++)
+		{
+			if (shadowFrames[channel] != null)
+			{
+				reports[count++] = shadowFrames[channel].clone();
+			}
+		}
+
+		byte[][] result = new byte[count][];
+		System.arraycopy(reports, 0, result, 0, count);
+		return result;
+	}
+
+	/** 
+	 * Apply a report to the shadow state, called with the shadow lock held
+	 */
+	private void updateShadow(byte[] buffer)
+	{
+		byte reportId = buffer[0];
+
+		if (reportId == 1 && buffer.length >= 4)
+		{
+			if (shadowColor == null)
+			{
+				shadowColor = new byte[4];
+			}
+			System.arraycopy(buffer, 0, shadowColor, 0, 4);
+
+			byte[] frame = shadowFrames[0];
+			if (frame != null)
+			{
+				frame[LedFrame.DATA_OFFSET] = buffer[2];
+				frame[LedFrame.DATA_OFFSET + 1] = buffer[1];
+				frame[LedFrame.DATA_OFFSET + 2] = buffer[3];
+			}
+		}
+		else if (reportId == 4 && buffer.length >= 2)
+		{
+			shadowMode = buffer[1];
+		}
+		else if (reportId == 5 && buffer.length >= 6 && buffer[1] >= 0 && buffer[1] <= 2)
+		{
+			byte[] frame = shadowFrames[buffer[1]];
+			int offset = LedFrame.DATA_OFFSET + (buffer[2] & 0xFF) * 3;
+			if (frame != null && offset + 2 < frame.length)
+			{
+				frame[offset] = buffer[4];
+				frame[offset + 1] = buffer[3];
+				frame[offset + 2] = buffer[5];
+			}
+		}
+		else if (reportId >= 6 && reportId <= 10 && buffer.length >= 2 && buffer[1] >= 0 && buffer[1] <= 2)
+		{
+			byte[] frame = shadowFrames[buffer[1]];
+			if (frame == null || frame.length != buffer.length)
+			{
+				frame = new byte[buffer.length];
+				shadowFrames[buffer[1]] = frame;
+			}
+			System.arraycopy(buffer, 0, frame, 0, buffer.length);
+		}
+		else
+		{
+			return;
+		}
+
+		shadowVersion++;
+	}
+
+	/** 
+	 * Start measuring time to first frame for the next connection
+	 * 
+	 * @param requestedAt	Value of {@link System#nanoTime()} when opening was requested
+	 * @param histogram	Histogram to record the time to first frame in
+	 */
+	void measureFirstFrame(long requestedAt, LatencyHistogram histogram)
+	{
+		openRequestedAt = requestedAt;
+		firstFrameHistogram = histogram;
+		firstFrameSent = false;
 	}
 	
 	private int _VersionMajor = -1;
@@ -118,13 +416,153 @@ public class BlinkStick {
 	}
 
 	private int brightnessLimit = 255;
+
+	private boolean inverted;
+
+	/**
+	 * Output value for every color value with brightness limit and inversion applied, null if values are sent unchanged
+	 */
+	private volatile byte[] outputTable;
+
+	/**
+	 * Reusable report buffer for frames sent with brightness limit applied, guarded by {@link #limitedReportLock}
+	 */
+	private byte[] limitedReport;
+
+	private final Object limitedReportLock = new Object();
+
+	/**
+	 * Color data frames not sent because the mode makes them redundant
+	 */
+	private long framesSkipped;
+
+	/**
+	 * Color data frames which do not fit the mode, sent anyway
+	 */
+	private long modeMismatches;
+
+	/**
+	 * Rebuild the output table after brightness limit, inversion or mode changed and resend frames of the background writer
+	 */
+	private void updateOutputTable()
+	{
+		byte[] table = null;
+
+		// The firmware already inverts in inverse mode
+		boolean invert = inverted && shadowMode != 1;
+
+		if (brightnessLimit < 255 || invert)
+		{
+			table = new byte[256];
+			for (int i = 0; i < 256; i++)
+			{
+				int value = brightnessLimit < 255 ? remapColor((byte) i, brightnessLimit) & 0xFF : i;
+				table[i] = (byte) (invert ? 255 - value : value);
+			}
+		}
+
+		outputTable = table;
+
+		BlinkStickWriter w = writer;
+		if (w != null)
+		{
+			w.refresh();
+		}
+	}
+
+	/**
+	 * Invert all color values in software, for LEDs with common anode on devices without the inverse mode.
+	 * Inversion is applied after the brightness limit together with it in one table lookup. It is left
+	 * out while the device is in inverse mode (1), where the firmware inverts the colors.
+	 *
+	 * @param value	true to send 255 - value for every color value
+	 */
+	public synchronized void setInverted(boolean value)
+	{
+		if (inverted != value)
+		{
+			inverted = value;
+			updateOutputTable();
+		}
+	}
+
+	/**
+	 * @return true if color values are inverted in software
+	 */
+	public synchronized boolean isInverted()
+	{
+		return inverted;
+	}
+
+	/**
+	 * Get the mode last set with {@link #setMode(byte)} or read with {@link #getMode()} without querying the device.
+	 * The mode is read from the device with the first color data sent on a new connection.
+	 *
+	 * @return 0 - Normal, 1 - Inverse, 2 - WS2812, 3 - WS2812 mirror, -1 if not known
+	 */
+	public int getCurrentMode()
+	{
+		return shadowMode;
+	}
+
+	/**
+	 * @return Number of color data frames for channels 1 and 2 not sent because the device mirrors channel 0 in mode 3
+	 */
+	public synchronized long getFramesSkipped()
+	{
+		return framesSkipped;
+	}
+
+	/**
+	 * @return Number of color data frames with more than one LED sent in normal or inverse mode, where only the first LED is shown
+	 */
+	public synchronized long getModeMismatches()
+	{
+		return modeMismatches;
+	}
+
+	/**
+	 * Check if color data for a channel is needed in the current mode
+	 *
+	 * @return false if the frame is redundant and should not be sent
+	 */
+	private boolean fitsMode(int channel, int ledCount)
+	{
+		if (!modeKnown)
+		{
+			// Read once per connection, devices without mode support stay at -1
+			modeKnown = true;
+			getMode();
+		}
+
+		int mode = shadowMode;
+
+		if (mode == 3 && channel != 0)
+		{
+			synchronized (this)
+			{
+				framesSkipped++;
+			}
+			return false;
+		}
+
+		if ((mode == 0 || mode == 1) && ledCount > 1)
+		{
+			synchronized (this)
+			{
+				modeMismatches++;
+			}
+		}
+
+		return true;
+	}
 	
 	/**
 	 * Set the brightness limit
 	 * 
 	 * @param value the maximum amount of brightness for LEDs in the range of [0..255]
 	 */
-	public void setBrightnessLimit(int value)
+	public synchronized void setBrightnessLimit(int value)
 	{
 		if (value < 0)
 		{
@@ -135,7 +573,13 @@ public class BlinkStick {
 			value = 255;
 		}
 		
+		if (brightnessLimit == value)
+		{
+			return;
+		}
+
 		brightnessLimit = value;
+		updateOutputTable();
 	}
 	
 	
@@ -156,7 +600,7 @@ public class BlinkStick {
 	 */
 	public boolean isConnected()
 	{
-		return connection != null;
+		return transport != null;
 	}
 
 	/** 
@@ -179,11 +623,12 @@ public class BlinkStick {
 	 * @param b blue byte color value 0..255
 	 */
 	public void setColor(byte r, byte g, byte b) {
-		if (brightnessLimit < 255)
+		byte[] table = outputTable;
+		if (table != null)
 		{
-			r = remapColor(r, brightnessLimit);
-			g = remapColor(g, brightnessLimit);
-			b = remapColor(b, brightnessLimit);
+			r = table[r & 0xFF];
+			g = table[g & 0xFF];
+			b = table[b & 0xFF];
 		}
 		
 		try {
@@ -198,13 +643,101 @@ public class BlinkStick {
 	 * Sends feature report to BlinkStick
 	 * 
 	 * @param buffer An array of bytes to send to the device. First byte has to be report id.
+	 * 
+	 * @return		Number of bytes sent to the device or negative value on failure
 	 */
-	private void sendFeatureReport(byte[] buffer)
+	private int sendFeatureReport(byte[] buffer)
 	{
-		if (connection != null)
+		return sendFeatureReport(buffer, true);
+	}
+
+	/**
+	 * Sends feature report to BlinkStick
+	 * 
+	 * @param buffer An array of bytes to send to the device. First byte has to be report id.
+	 * @param external	true unless sent by the background writer, which then must not skip its next frame as unchanged
+	 * 
+	 * @return		Number of bytes sent to the device or negative value on failure
+	 */
+	private int sendFeatureReport(byte[] buffer, boolean external)
+	{
+		BlinkStickTransport t;
+		synchronized (shadowFrames)
 		{
-			connection.controlTransfer(0x20, 0x9, buffer[0], 0, buffer, buffer.length, 2000);
+			updateShadow(buffer);
+			t = failed ? null : transport;
 		}
+
+		BlinkStickWriter w = writer;
+		if (external && w != null && isColorReport(buffer[0]))
+		{
+			w.invalidate(buffer[0] == 1 ? 0 : buffer[1]);
+		}
+
+		if (t != null)
+		{
+			ReportTrace trace = reportTrace;
+			long start = trace != null ? System.nanoTime() : 0;
+
+			int result = t.sendFeatureReport(buffer, buffer.length);
+
+			if (trace != null)
+			{
+				trace.record(buffer, buffer.length, start, System.nanoTime() - start, result);
+			}
+
+			if (result < 0)
+			{
+				transferFailed(t, result);
+			}
+
+			if (!firstFrameSent && result >= 0 && isColorReport(buffer[0]))
+			{
+				firstFrameSent = true;
+				if (firstFrameHistogram != null && openRequestedAt > 0)
+				{
+					firstFrameHistogram.record(System.nanoTime() - openRequestedAt);
+				}
+			}
+
+			return result;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Stop sending and notify the failure listener of the first failed transfer of a transport
+	 */
+	private void transferFailed(BlinkStickTransport t, int result)
+	{
+		FailureListener listener = failureListener;
+		if (listener == null)
+		{
+			return;
+		}
+
+		synchronized (shadowFrames)
+		{
+			if (failed || transport != t)
+			{
+				return;
+			}
+			failed = true;
+		}
+
+		listener.onTransferFailed(this, result);
+	}
+
+	/**
+	 * Check if report sets LED colors
+	 * 
+	 * @param reportId	Report id
+	 * @return true for single color, indexed color and color data reports
+	 */
+	private static boolean isColorReport(byte reportId)
+	{
+		return reportId == 1 || reportId == 5 || (reportId >= 6 && reportId <= 10);
 	}
 
 	/**
@@ -216,9 +749,10 @@ public class BlinkStick {
 	 */
 	private int getFeatureReport(byte[] buffer)
 	{
-		if (connection != null)
+		BlinkStickTransport t = transport;
+		if (t != null)
 		{
-			return connection.controlTransfer(0x80 | 0x20, 0x1, buffer[0], 0, buffer, buffer.length, 2000);
+			return t.getFeatureReport(buffer, buffer.length);
 		}
 
 		return 0;
@@ -247,11 +781,12 @@ public class BlinkStick {
 	 * @param b blue byte color value 0..255
 	 */
 	public void setIndexedColor(byte channel, byte index, byte r, byte g, byte b) {
-		if (brightnessLimit < 255)
+		byte[] table = outputTable;
+		if (table != null)
 		{
-			r = remapColor(r, brightnessLimit);
-			g = remapColor(g, brightnessLimit);
-			b = remapColor(b, brightnessLimit);
+			r = table[r & 0xFF];
+			g = table[g & 0xFF];
+			b = table[b & 0xFF];
 		}
 
 		try {
@@ -321,11 +856,11 @@ public class BlinkStick {
 	 * Set random color
 	 */
 	public void setRandomColor() {
-		Random random = new Random();
+		int value = random.nextInt();
 		this.setColor(
-				random.nextInt(256), 
-				random.nextInt(256),
-				random.nextInt(256));
+				(value >> 16) & 0xFF, 
+				(value >> 8) & 0xFF,
+				value & 0xFF);
 	}
 
 	/** 
@@ -395,31 +930,81 @@ public class BlinkStick {
 				+ String.format("%02X", blue);
 	}
 
+	/**
+	 * Size of the data stored in a single InfoBlock
+	 */
+	public static final int INFO_BLOCK_SIZE = 32;
+
+	/** 
+	 * Cached InfoBlock contents, null until read from or written to the device
+	 */
+	private final byte[][] infoBlockCache = new byte[2][];
+
 	/** 
-	 * Get value of InfoBlocks
+	 * Get raw value of InfoBlocks. The value is read from the device once and cached afterwards.
+	 * 
+	 * @param id	InfoBlock id, should be 1 or 2 as only supported info blocks
+	 * 
+	 * @return Cached 32 bytes of InfoBlock data or null if the device could not be read
+	 */
+	private byte[] readInfoBlock(int id) {
+		if (infoBlockCache[id - 1] == null)
+		{
+			byte[] data = new byte[INFO_BLOCK_SIZE + 1];
+			data[0] = (byte) (id + 1);
+
+			try {
+				int read = getFeatureReport(data);
+				if (read > 0) {
+					byte[] block = new byte[INFO_BLOCK_SIZE];
+					System.arraycopy(data, 1, block, 0, INFO_BLOCK_SIZE);
+					infoBlockCache[id - 1] = block;
+				}
+			} catch (Exception e) {
+			}
+		}
+
+		return infoBlockCache[id - 1];
+	}
+
+	/** 
+	 * Get value of InfoBlocks as string terminated by the first NUL byte
 	 * 
 	 * @param id	InfoBlock id, should be 1 or 2 as only supported info blocks
 	 */
 	private String getInfoBlock(int id) {
-		byte[] data = new byte[33];
-		data[0] = (byte) (id + 1);
+		byte[] block = readInfoBlock(id);
+		if (block == null) {
+			return "";
+		}
 
-		String result = "";
-		try {
-			int read = getFeatureReport(data);
-			if (read > 0) {
-				for (int i = 1; i < data.length; i++) {
-					if (i == 0) {
-						break;
-					}
+		char[] chars = new char[INFO_BLOCK_SIZE];
+		int length = 0;
+		while (length < INFO_BLOCK_SIZE && block[length] != 0) {
+			chars[length] = (char) (block[length] & 0xFF);
+			length++;
+		}
 
-					result += (char) data[i];
-				}
-			}
-		} catch (Exception e) {
+		return new String(chars, 0, length);
+	}
+
+	/** 
+	 * Copy raw value of InfoBlocks into a buffer
+	 * 
+	 * @param id	InfoBlock id, should be 1 or 2 as only supported info blocks
+	 * @param dst	Buffer to receive up to 32 bytes of data
+	 * 
+	 * @return Number of bytes copied, 0 if the device could not be read
+	 */
+	private int getInfoBlock(int id, ByteBuffer dst) {
+		byte[] block = readInfoBlock(id);
+		if (block == null) {
+			return 0;
 		}
 
-		return result;
+		int length = Math.min(INFO_BLOCK_SIZE, dst.remaining());
+		dst.put(block, 0, length);
+		return length;
 	}
 
 	/** 
@@ -431,6 +1016,27 @@ public class BlinkStick {
 		return getInfoBlock(1);
 	}
 
+	/** 
+	 * Get raw value of InfoBlock1
+	 * 
+	 * @return 32 bytes of info block 1 or null if the device could not be read
+	 */
+	public byte[] getInfoBlock1Bytes() {
+		byte[] block = readInfoBlock(1);
+		return block != null ? block.clone() : null;
+	}
+
+	/** 
+	 * Copy raw value of InfoBlock1 into a buffer
+	 * 
+	 * @param dst	Buffer to receive up to 32 bytes of data
+	 * 
+	 * @return Number of bytes copied, 0 if the device could not be read
+	 */
+	public int getInfoBlock1(ByteBuffer dst) {
+		return getInfoBlock(1, dst);
+	}
+
 	/** 
 	 * Get value of InfoBlock2
 	 * 
@@ -440,32 +1046,96 @@ public class BlinkStick {
 		return getInfoBlock(2);
 	}
 
+	/** 
+	 * Get raw value of InfoBlock2
+	 * 
+	 * @return 32 bytes of info block 2 or null if the device could not be read
+	 */
+	public byte[] getInfoBlock2Bytes() {
+		byte[] block = readInfoBlock(2);
+		return block != null ? block.clone() : null;
+	}
 
 	/** 
-	 * Set value for InfoBlocks
+	 * Copy raw value of InfoBlock2 into a buffer
+	 * 
+	 * @param dst	Buffer to receive up to 32 bytes of data
+	 * 
+	 * @return Number of bytes copied, 0 if the device could not be read
+	 */
+	public int getInfoBlock2(ByteBuffer dst) {
+		return getInfoBlock(2, dst);
+	}
+
+
+	/** 
+	 * Set value for InfoBlocks. Nothing is sent to the device if the InfoBlock already has the same content.
 	 * 
 	 * @param id	InfoBlock id, should be 1 or 2 as only supported info blocks
-	 * @param value	The value to be written to the info block
+	 * @param data	Report buffer of 33 bytes with the new value from index 1 padded with zeroes
 	 */
-	private void setInfoBlock(int id, String value) {
-		char[] charArray = value.toCharArray();
-		byte[] data = new byte[33];
+	private void setInfoBlock(int id, byte[] data) {
 		data[0] = (byte) (id + 1);
 
-		for (int i = 0; i < charArray.length; i++) {
-			if (i > 32) {
-				break;
+		byte[] block = readInfoBlock(id);
+		if (block != null) {
+			boolean changed = false;
+			for (int i = 0; i < INFO_BLOCK_SIZE; i++) {
+				if (block[i] != data[i + 1]) {
+					changed = true;
+					break;
+				}
 			}
 
-			data[i + 1] = (byte) charArray[i];
+			if (!changed) {
+				return;
+			}
 		}
 
 		try {
-			sendFeatureReport(data);
+			if (sendFeatureReport(data) >= 0) {
+				if (block == null) {
+					block = new byte[INFO_BLOCK_SIZE];
+					infoBlockCache[id - 1] = block;
+				}
+				System.arraycopy(data, 1, block, 0, INFO_BLOCK_SIZE);
+			} else {
+				infoBlockCache[id - 1] = null;
+			}
 		} catch (Exception e) {
+			infoBlockCache[id - 1] = null;
 			e.printStackTrace();
+		}
+	}
+
+	/** 
+	 * Set value for InfoBlocks
+	 * 
+	 * @param id	InfoBlock id, should be 1 or 2 as only supported info blocks
+	 * @param value	The value to be written to the info block, characters are truncated to bytes
+	 */
+	private void setInfoBlock(int id, String value) {
+		byte[] data = new byte[INFO_BLOCK_SIZE + 1];
+		int length = Math.min(value.length(), INFO_BLOCK_SIZE);
 
+		for (int i = 0; i < length; i++) {
+			data[i + 1] = (byte) value.charAt(i);
 		}
+
+		setInfoBlock(id, data);
+	}
+
+	/** 
+	 * Set value for InfoBlocks
+	 * 
+	 * @param id	InfoBlock id, should be 1 or 2 as only supported info blocks
+	 * @param value	Buffer with up to 32 bytes to be written to the info block
+	 */
+	private void setInfoBlock(int id, ByteBuffer value) {
+		byte[] data = new byte[INFO_BLOCK_SIZE + 1];
+		value.get(data, 1, Math.min(value.remaining(), INFO_BLOCK_SIZE));
+
+		setInfoBlock(id, data);
 	}
 
 	/** 
@@ -477,6 +1147,24 @@ public class BlinkStick {
 		setInfoBlock(1, value);
 	}
 
+	/** 
+	 * Set raw value for InfoBlock1
+	 * 
+	 * @param value	Up to 32 bytes to be written to the info block 1, the rest of the block is filled with zeroes
+	 */
+	public void setInfoBlock1(byte[] value) {
+		setInfoBlock(1, ByteBuffer.wrap(value));
+	}
+
+	/** 
+	 * Set raw value for InfoBlock1
+	 * 
+	 * @param value	Buffer with up to 32 bytes to be written to the info block 1, the rest of the block is filled with zeroes
+	 */
+	public void setInfoBlock1(ByteBuffer value) {
+		setInfoBlock(1, value);
+	}
+
 	/** 
 	 * Set value for InfoBlock2
 	 * 
@@ -486,6 +1174,24 @@ public class BlinkStick {
 		setInfoBlock(2, value);
 	}
 
+	/** 
+	 * Set raw value for InfoBlock2
+	 * 
+	 * @param value	Up to 32 bytes to be written to the info block 2, the rest of the block is filled with zeroes
+	 */
+	public void setInfoBlock2(byte[] value) {
+		setInfoBlock(2, ByteBuffer.wrap(value));
+	}
+
+	/** 
+	 * Set raw value for InfoBlock2
+	 * 
+	 * @param value	Buffer with up to 32 bytes to be written to the info block 2, the rest of the block is filled with zeroes
+	 */
+	public void setInfoBlock2(ByteBuffer value) {
+		setInfoBlock(2, value);
+	}
+
 	/** 
 	 * Get the manufacturer of the device
 	 * 
@@ -494,24 +1200,7 @@ public class BlinkStick {
 	public String getManufacturer() {
 		if (manufacturer == null)
 		{
-			manufacturer = "";
-
-			byte[] rawDescs = connection.getRawDescriptors();
-			byte[] buffer = new byte[255];
-			int idxMan = rawDescs[14];
-
-			try
-			{
-				int rdo = connection.controlTransfer(UsbConstants.USB_DIR_IN
-						| UsbConstants.USB_TYPE_STANDARD, STD_USB_REQUEST_GET_DESCRIPTOR,
-						(LIBUSB_DT_STRING << 8) | idxMan, 0, buffer, 0xFF, 0);
-
-
-				manufacturer = new String(buffer, 2, rdo - 2, "UTF-16LE");
-			}
-			catch (Exception e)
-			{
-			}
+			manufacturer = transport.getManufacturer();
 		}
 
 		return manufacturer;
@@ -525,22 +1214,7 @@ public class BlinkStick {
 	public String getProduct() {
 		if (productName == null)
 		{
-			productName = "";
-
-			byte[] rawDescs = connection.getRawDescriptors();
-			byte[] buffer = new byte[255];
-			int idxPrd = rawDescs[15];
-
-			try
-			{
-				int rdo = connection.controlTransfer(UsbConstants.USB_DIR_IN
-						| UsbConstants.USB_TYPE_STANDARD, STD_USB_REQUEST_GET_DESCRIPTOR,
-						(LIBUSB_DT_STRING << 8) | idxPrd, 0, buffer, 0xFF, 0);
-				productName = new String(buffer, 2, rdo - 2, "UTF-16LE");
-			}
-			catch (Exception e)
-			{
-			}
+			productName = transport.getProduct();
 		}
 
 		return productName;
@@ -553,7 +1227,12 @@ public class BlinkStick {
 	 * @return Returns the serial number of device.
 	 */
 	public String getSerial() {
-		return connection.getSerial();
+		if (serial == null)
+		{
+			serial = transport.getSerial();
+		}
+
+		return serial;
 	}
 
 
@@ -562,7 +1241,7 @@ public class BlinkStick {
 	 * 
 	 * @return Returns the report id
 	 */
-	private byte determineReportId(int length) {
+	static byte determineReportId(int length) {
 		byte reportId = 9;
 		//Automatically determine the correct report id to send the data to
 		if (length <= 8 * 3)
@@ -594,7 +1273,7 @@ public class BlinkStick {
 	 * 
 	 * @return Returns the adjusted amount of LED data
 	 */
-	private byte determineMaxLeds(int length) {
+	static byte determineMaxLeds(int length) {
 		byte maxLeds = 64;
 		//Automatically determine the correct report id to send the data to
 		if (length <= 8 * 3)
@@ -650,18 +1329,23 @@ public class BlinkStick {
 	 */
 	public void setColors(byte channel, byte[] colorData)
 	{
-		byte leds = this.determineMaxLeds(colorData.length);
+		byte leds = determineMaxLeds(colorData.length);
+		if (!fitsMode(channel, (colorData.length + 2) / 3))
+		{
+			return;
+		}
+
 		byte[] data = new byte[leds * 3 + 2];
 
-		data[0] = this.determineReportId(colorData.length);
+		data[0] = determineReportId(colorData.length);
 		data[1] = channel;
 
-
+		byte[] table = outputTable;
 		for (int i = 0; i < Math.min(colorData.length, data.length - 2); i++)
 		{
-            if (brightnessLimit < 255)
+            if (table != null)
             {
-                data[i + 2] = remapColor(colorData[i], brightnessLimit);
+                data[i + 2] = table[colorData[i] & 0xFF];
             }
             else
             {
@@ -681,6 +1365,144 @@ public class BlinkStick {
 		}
 	}
 
+	/** 
+	 * Send a prepared frame of data to LEDs. The frame report is sent as is unless brightness limit or
+	 * inversion is set. Frames for channels 1 and 2 are not sent in WS2812 mirror mode.
+	 * 
+	 * @param frame	Frame with the channel and color data to send
+	 */
+	public void setColors(LedFrame frame)
+	{
+		sendFrame(frame, true);
+	}
+
+	/** 
+	 * Send a frame for the background writer, which keeps track of the frames it sent itself
+	 * 
+	 * @param frame	Frame with the channel and color data to send
+	 * @return false if the frame was skipped because the mode makes it redundant
+	 */
+	boolean writeFrame(LedFrame frame)
+	{
+		return sendFrame(frame, false);
+	}
+
+	/** 
+	 * @param external	true if sent outside of the background writer
+	 * @return false if the frame was skipped because the mode makes it redundant
+	 */
+	private boolean sendFrame(LedFrame frame, boolean external)
+	{
+		if (!fitsMode(frame.getChannel(), frame.getLedCount()))
+		{
+			return false;
+		}
+
+		byte[] data = frame.getReport();
+		byte[] table = outputTable;
+
+		if (table == null)
+		{
+			try {
+				sendFeatureReport(data, external);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			return true;
+		}
+
+		// Frames arrive from the writer, group and server threads, the shared buffer is held until sent
+		synchronized (limitedReportLock)
+		{
+			if (limitedReport == null || limitedReport.length != data.length)
+			{
+				limitedReport = new byte[data.length];
+			}
+
+			limitedReport[0] = data[0];
+			limitedReport[1] = data[1];
+			for (int i = LedFrame.DATA_OFFSET; i < data.length; i++)
+			{
+				limitedReport[i] = table[data[i] & 0xFF];
+			}
+
+			try {
+				sendFeatureReport(limitedReport, external);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
+		return true;
+	}
+
+	/** 
+	 * Record every report sent to the device
+	 * 
+	 * @param trace	Trace to record into or null to stop recording
+	 */
+	public void setReportTrace(ReportTrace trace)
+	{
+		reportTrace = trace;
+	}
+
+	/** 
+	 * Get the trace which records reports sent to the device
+	 * 
+	 * @return Trace or null if reports are not recorded
+	 */
+	public ReportTrace getReportTrace()
+	{
+		return reportTrace;
+	}
+
+	/** 
+	 * Background writer of this device, created on first use
+	 */
+	private volatile BlinkStickWriter writer;
+
+	/** 
+	 * Get background writer which sends frames without blocking the caller at the rate the device can sustain.
+	 * After {@link #close()} the writer is shut down and discards frames until a transport is assigned again,
+	 * which creates a new writer.
+	 * 
+	 * @return Writer of this device
+	 */
+	public synchronized BlinkStickWriter getWriter()
+	{
+		if (writer == null)
+		{
+			writer = new BlinkStickWriter(this);
+		}
+
+		return writer;
+	}
+
+	/** 
+	 * Fade smoothly to a frame on the background writer. A fade started while another one is running
+	 * on the same channel continues from the colors currently shown.
+	 * 
+	 * @param frame	Frame to fade to
+	 * @param durationMs	Duration of the fade in milliseconds
+	 * @param easing	Easing curve, for example {@link Easing#EASE_IN_OUT}
+	 */
+	public void fadeTo(LedFrame frame, int durationMs, Easing easing)
+	{
+		getWriter().fadeTo(frame, durationMs, easing);
+	}
+
+	/** 
+	 * Create subscriber which sends frames to a channel and requests more only when the device took the previous one
+	 * 
+	 * @param channel	Channel (0 - R, 1 - G, 2 - B)
+	 * @param policy	Overflow policy {@link FrameSink#DROP_OLDEST}, {@link FrameSink#DROP_NEWEST} or {@link FrameSink#CONFLATE}
+	 * @return Frame sink to subscribe to a producer
+	 */
+	public FrameSink createFrameSink(int channel, int policy)
+	{
+		return new FrameSink(this, channel, policy);
+	}
+
 	/** 
 	 * Set the mode of BlinkStick Pro as int
 	 * 
@@ -698,11 +1520,22 @@ public class BlinkStick {
 	 */
 	public void setMode(byte mode)
 	{
+		int previous = shadowMode;
+		modeKnown = true;
+
 		try {
 			sendFeatureReport(new byte[] {4, mode});
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+
+		if (previous != mode)
+		{
+			synchronized (this)
+			{
+				updateOutputTable();
+			}
+		}
 	}
 
 	/** 
@@ -718,6 +1551,21 @@ public class BlinkStick {
 		try {
 			int read = getFeatureReport(data);
 			if (read > 0) {
+				int previous;
+				synchronized (shadowFrames)
+				{
+					previous = shadowMode;
+					updateShadow(data);
+				}
+				modeKnown = true;
+
+				if (previous != data[1])
+				{
+					synchronized (this)
+					{
+						updateOutputTable();
+					}
+				}
 				return data[1];
 			}
 		} catch (Exception e) {
@@ -0,0 +1,369 @@
+package com.agileinnovative.blinkstick;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.app.PendingIntent;
+import android.content.Context;
+
+/**
+ * Process wide manager which keeps BlinkStick connections open across Activity lifecycle changes.
+ *
+ * Devices are opened once, in parallel, together with the descriptor reads that would otherwise
+ * happen lazily on first use. Callers acquire devices when they need them and release them when they
+ * are done, for example in onStart and onStop. A device which is no longer used by anyone stays open
+ * for the idle timeout, so a recreated Activity or a Service gets the same connection back instantly.
+ */
+public class BlinkStickConnectionManager {
+
+	/**
+	 * Default time in milliseconds an unused device stays open
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+	private static BlinkStickConnectionManager instance;
+
+	private static class Entry {
+		final String name;
+		final BlinkStick blinkStick;
+		int references;
+		ScheduledFuture<?> idleClose;
+
+		Entry(String name, BlinkStick blinkStick)
+		{
+			this.name = name;
+			this.blinkStick = blinkStick;
+		}
+	}
+
+	private final BlinkStickFinder finder = new BlinkStickFinder();
+
+	private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+	private final ExecutorService openExecutor;
+
+	private final ScheduledExecutorService idleExecutor;
+
+	private final LatencyHistogram timeToFirstFrame = new LatencyHistogram();
+
+	private final LatencyHistogram openTime = new LatencyHistogram();
+
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	/**
+	 * Get the manager of this process
+	 *
+	 * @param context	Any context, only the application context is kept
+	 * @return Shared manager
+	 */
+	public static synchronized BlinkStickConnectionManager getInstance(Context context)
+	{
+		if (instance == null)
+		{
+			instance = new BlinkStickConnectionManager(context.getApplicationContext());
+		}
+
+		return instance;
+	}
+
+	private BlinkStickConnectionManager(Context context)
+	{
+		finder.setContext(context);
+
+		ThreadFactory threads = new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "BlinkStickConnectionManager");
+				t.setDaemon(true);
+				return t;
+			}
+		};
+
+		openExecutor = Executors.newCachedThreadPool(threads);
+		idleExecutor = Executors.newSingleThreadScheduledExecutor(threads);
+	}
+
+	/**
+	 * Set permission intent object to be notified when user allows application to use BlinkStick device.
+	 *
+	 * @param intent	permission intent object
+	 */
+	public void setPermissionIntent(PendingIntent intent)
+	{
+		finder.setPermissionIntent(intent);
+	}
+
+	/**
+	 * Set how long a device stays open after it was released by all users
+	 *
+	 * @param millis	Timeout in milliseconds, 0 to close immediately
+	 */
+	public synchronized void setIdleTimeout(long millis)
+	{
+		idleTimeout = millis;
+	}
+
+	/**
+	 * Time from an acquire call to the first color report sent to a newly opened device
+	 *
+	 * @return Time to first frame histogram
+	 */
+	public LatencyHistogram getTimeToFirstFrameHistogram()
+	{
+		return timeToFirstFrame;
+	}
+
+	/**
+	 * Time to open a device and read its descriptors
+	 *
+	 * @return Open time histogram
+	 */
+	public LatencyHistogram getOpenTimeHistogram()
+	{
+		return openTime;
+	}
+
+	/**
+	 * Acquire first connected BlinkStick. Permission is requested if the user has not authorized the device yet.
+	 *
+	 * @return Open BlinkStick or null if no BlinkSticks are connected or opening the device failed
+	 * @throws BlinkStickUnauthorizedException if the user has not authorized access to the device yet
+	 */
+	public synchronized BlinkStick acquireFirst() throws BlinkStickUnauthorizedException
+	{
+		BlinkStick[] found = finder.findAll();
+		if (found.length == 0)
+		{
+			return null;
+		}
+
+		BlinkStick[] opened = acquire(new BlinkStick[] { found[0] });
+		if (opened[0] == null && !finder.hasPermission(found[0]))
+		{
+			throw new BlinkStickUnauthorizedException();
+		}
+
+		return opened[0];
+	}
+
+	/**
+	 * Acquire all connected BlinkSticks, opening new devices in parallel. Permission is requested for
+	 * devices the user has not authorized yet and they are left out of the result.
+	 *
+	 * @return Open BlinkSticks, every one has to be passed to {@link #release(BlinkStick)} once
+	 */
+	public synchronized List<BlinkStick> acquireAll()
+	{
+		BlinkStick[] opened = acquire(finder.findAll());
+
+		List<BlinkStick> result = new ArrayList<BlinkStick>();
+		for (int i = 0; i < opened.length; i++)
+		{
+			if (opened[i] != null)
+			{
+				result.add(opened[i]);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Release a device acquired earlier. The connection is closed after the idle timeout unless the device is acquired again.
+	 *
+	 * @param blinkStick	Device to release
+	 */
+	public synchronized void release(BlinkStick blinkStick)
+	{
+		Entry entry = findEntry(blinkStick);
+		if (entry == null || entry.references == 0)
+		{
+			return;
+		}
+
+		entry.references--;
+		if (entry.references > 0)
+		{
+			return;
+		}
+
+		if (idleTimeout <= 0)
+		{
+			closeEntry(entry);
+			return;
+		}
+
+		final Entry idle = entry;
+		entry.idleClose = idleExecutor.schedule(new Runnable() {
+			public void run() {
+				closeIfIdle(idle);
+			}
+		}, idleTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Close all devices regardless of their users
+	 */
+	public synchronized void closeAll()
+	{
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext())
+		{
+			Entry entry = iterator.next();
+			if (entry.idleClose != null)
+			{
+				entry.idleClose.cancel(false);
+			}
+			entry.blinkStick.close();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Open or reuse connections for the devices
+	 *
+	 * @return Open device for every found one, null where access is not authorized or opening failed
+	 */
+	private BlinkStick[] acquire(BlinkStick[] found)
+	{
+		final long requestedAt = System.nanoTime();
+
+		BlinkStick[] result = new BlinkStick[found.length];
+		List<Future<Boolean>> pending = new ArrayList<Future<Boolean>>(found.length);
+
+		for (int i = 0; i < found.length; i++)
+		{
+			Entry entry = entries.get(found[i].getDevice().getDeviceName());
+			if (entry != null && entry.blinkStick.isConnected())
+			{
+				reuse(entry);
+				result[i] = entry.blinkStick;
+				pending.add(null);
+				continue;
+			}
+
+			final BlinkStick blinkStick = found[i];
+			pending.add(openExecutor.submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					return open(blinkStick, requestedAt);
+				}
+			}));
+		}
+
+		for (int i = 0; i < found.length; i++)
+		{
+			if (pending.get(i) == null)
+			{
+				continue;
+			}
+
+			boolean opened = false;
+			try {
+				opened = pending.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+
+			if (opened)
+			{
+				String name = found[i].getDevice().getDeviceName();
+				Entry stale = entries.get(name);
+				if (stale != null)
+				{
+					closeEntry(stale);
+				}
+
+				Entry entry = new Entry(name, found[i]);
+				entry.references = 1;
+				entries.put(name, entry);
+				result[i] = found[i];
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Open device and read descriptors, runs on the open executor
+	 */
+	private boolean open(BlinkStick blinkStick, long requestedAt)
+	{
+		long start = System.nanoTime();
+
+		try
+		{
+			blinkStick.measureFirstFrame(requestedAt, timeToFirstFrame);
+			if (!finder.openDevice(blinkStick))
+			{
+				return false;
+			}
+		}
+		catch (BlinkStickUnauthorizedException e)
+		{
+			finder.requestPermission(blinkStick);
+			return false;
+		}
+
+		blinkStick.getSerial();
+		blinkStick.getManufacturer();
+		blinkStick.getProduct();
+
+		openTime.record(System.nanoTime() - start);
+		return true;
+	}
+
+	private void reuse(Entry entry)
+	{
+		entry.references++;
+		if (entry.idleClose != null)
+		{
+			entry.idleClose.cancel(false);
+			entry.idleClose = null;
+		}
+	}
+
+	private synchronized void closeIfIdle(Entry entry)
+	{
+		if (entry.references == 0 && entries.get(entry.name) == entry)
+		{
+			closeEntry(entry);
+		}
+	}
+
+	private void closeEntry(Entry entry)
+	{
+		if (entry.idleClose != null)
+		{
+			entry.idleClose.cancel(false);
+			entry.idleClose = null;
+		}
+
+		entries.remove(entry.name);
+		entry.blinkStick.close();
+	}
+
+	private Entry findEntry(BlinkStick blinkStick)
+	{
+		for (Entry entry : entries.values())
+		{
+			if (entry.blinkStick == blinkStick)
+			{
+				return entry;
+			}
+		}
+
+		return null;
+	}
+}
@@ -68,6 +68,23 @@ public class BlinkStickFinder {
 		return null;
 	}
 
+	/** 
+	 * Find all BlinkSticks connected to the computer
+	 * 
+	 * @return an array of BlinkStick objects, empty if no BlinkSticks are connected
+	 */
+	public BlinkStick[] findAll() {
+		UsbDevice[] infos = findAllDescriptors();
+		BlinkStick[] result = new BlinkStick[infos.length];
+
+		for (int i = 0; i < infos.length; i++) {
+			result[i] = new BlinkStick();
+			result[i].setDevice(infos[i]);
+		}
+
+		return result;
+	}
+
 	/** 
 	 * Find all BlinkStick UsbDevice objects connected to the computer
 	 * 
@@ -123,6 +140,18 @@ public class BlinkStickFinder {
 		}
 	}
 
+	/** 
+	 * Check if the user authorized access to BlinkStick device.
+	 * 
+	 * @param blinkStick	BlinkStick device to check
+	 * 
+	 * @return true if the device can be opened without asking the user
+	 */
+	public boolean hasPermission(BlinkStick blinkStick)
+	{
+		return usbManager.hasPermission(blinkStick.getDevice());
+	}
+
 	/** 
 	 * Request permission from user to use BlinkStick device.
 	 * 
@@ -0,0 +1,292 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Presents frames on several devices at the same time.
+ *
+ * Frames are staged for every device first. {@link #present()} then releases one transfer thread
+ * per device together by starting a new generation, so the devices update within the skew of the
+ * USB transfers instead of one after another. The skew between the first and the last device to finish is
+ * recorded for every presented frame.
+ *
+ * The group sends directly on its own threads. Frames should not be sent to the same devices
+ * through their background writers at the same time.
+ */
+public class BlinkStickGroup {
+
+	private final BlinkStick[] devices;
+
+	private final LedFrame[][] staged;
+
+	private final LedFrame[][] sending;
+
+	private final boolean[][] dirty;
+
+	private final boolean[][] send;
+
+	private final long[] finished;
+
+	private final Thread[] threads;
+
+	/**
+	 * Guards the generation handoff between the presenting thread and the transfer threads
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Number of the frame released last, every transfer thread sends each generation once
+	 */
+	private long generation;
+
+	/**
+	 * Transfer threads which have not finished the current generation
+	 */
+	private int inFlight;
+
+	private final LatencyHistogram skew = new LatencyHistogram();
+
+	private final LatencyHistogram presentTime = new LatencyHistogram();
+
+	private volatile boolean stopped;
+
+	/**
+	 * Create group and start one transfer thread per device
+	 *
+	 * @param devices	Open devices
+	 */
+	public BlinkStickGroup(BlinkStick[] devices)
+	{
+		int count = devices.length;
+
+		this.devices = devices.clone();
+		this.staged = new LedFrame[count][3];
+		this.sending = new LedFrame[count][3];
+		this.dirty = new boolean[count][3];
+		this.send = new boolean[count][3];
+		this.finished = new long[count];
+		this.threads = new Thread[count];
+
+		for (int i = 0; i < count; i++)
+		{
+			final int index = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					loop(index);
+				}
+			}, "BlinkStickGroup-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+
+	/**
+	 * @return Number of devices in the group
+	 */
+	public int size()
+	{
+		return devices.length;
+	}
+
+	/**
+	 * Stage a frame for a device. The frame is copied and sent with the next {@link #present()},
+	 * a frame staged earlier for the same device and channel is replaced.
+	 *
+	 * @param device	Index of the device in the group
+	 * @param frame	Frame to send
+	 */
+	public synchronized void stage(int device, LedFrame frame)
+	{
+		int channel = frame.getChannel();
+
+		LedFrame slot = staged[device][channel];
+		if (slot == null || slot.getLedCount() != frame.getLedCount())
+		{
+			slot = new LedFrame(frame.getLedCount());
+			staged[device][channel] = slot;
+		}
+
+		slot.copyFrom(frame);
+		dirty[device][channel] = true;
+	}
+
+	/**
+	 * Send all staged frames at the same time and wait until every device received them.
+	 * Must not be called from several threads at once.
+	 *
+	 * @return true if all transfers completed, false if the group was shut down or the calling thread interrupted
+	 */
+	public boolean present()
+	{
+		try
+		{
+			// A previous call may have been interrupted while its transfers were still running
+			synchronized (lock)
+			{
+				while (inFlight > 0 && !stopped)
+				{
+					lock.wait();
+				}
+			}
+
+			synchronized (this)
+			{
+				for (int i = 0; i < devices.length; i++)
+				{
+					for (int channel = 0; channel < 3; channel++)
+					{
+						send[i][channel] = dirty[i][channel];
+						if (dirty[i][channel])
+						{
+							LedFrame frame = staged[i][channel];
+							staged[i][channel] = sending[i][channel];
+							sending[i][channel] = frame;
+							dirty[i][channel] = false;
+						}
+					}
+				}
+			}
+
+			long released;
+			synchronized (lock)
+			{
+				if (stopped)
+				{
+					return false;
+				}
+
+				generation++;
+				inFlight = devices.length;
+				released = System.nanoTime();
+				lock.notifyAll();
+
+				while (inFlight > 0 && !stopped)
+				{
+					lock.wait();
+				}
+
+				if (inFlight > 0)
+				{
+					return false;
+				}
+			}
+
+			long first = Long.MAX_VALUE;
+			long last = Long.MIN_VALUE;
+			int sent = 0;
+			for (int i = 0; i < finished.length; i++)
+			{
+				if (finished[i] != 0)
+				{
+					first = Math.min(first, finished[i]);
+					last = Math.max(last, finished[i]);
+					sent++;
+				}
+			}
+
+			if (sent > 0)
+			{
+				presentTime.record(last - released);
+			}
+			if (sent > 1)
+			{
+				skew.record(last - first);
+			}
+
+			return true;
+		}
+		catch (InterruptedException e)
+		{
+			// Transfers already released finish on their own, the next call waits for them
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Time between the first and the last device to finish their transfers of a presented frame
+	 *
+	 * @return Skew histogram
+	 */
+	public LatencyHistogram getSkewHistogram()
+	{
+		return skew;
+	}
+
+	/**
+	 * Time from the release of the transfers until the last device finished
+	 *
+	 * @return Present time histogram
+	 */
+	public LatencyHistogram getPresentTimeHistogram()
+	{
+		return presentTime;
+	}
+
+	/**
+	 * Stop the transfer threads. The devices are not closed.
+	 */
+	public void shutdown()
+	{
+		synchronized (lock)
+		{
+			stopped = true;
+			lock.notifyAll();
+		}
+
+		for (int i = 0; i < threads.length; i++)
+		{
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private void loop(int index)
+	{
+		long seen = 0;
+
+		while (true)
+		{
+			synchronized (lock)
+			{
+				while (generation == seen && !stopped)
+				{
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						// The presenter counts on every thread, only shutdown stops them
+					}
+				}
+
+				if (stopped)
+				{
+					return;
+				}
+				seen = generation;
+			}
+
+			// Frames were swapped in before the generation started
+			long end = 0;
+			for (int channel = 0; channel < 3; channel++)
+			{
+				if (send[index][channel])
+				{
+					devices[index].setColors(sending[index][channel]);
+					end = System.nanoTime();
+				}
+			}
+
+			synchronized (lock)
+			{
+				finished[index] = end;
+				inFlight--;
+				if (inFlight == 0)
+				{
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+}
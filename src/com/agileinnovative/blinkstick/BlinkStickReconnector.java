@@ -0,0 +1,285 @@
+package com.agileinnovative.blinkstick;
+
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconnects devices which dropped off the bus and restores their state.
+ *
+ * Watched devices stop sending after the first failed transfer. The reconnector then looks for the
+ * device with {@link BlinkStickFinder} until it is back, matching by serial number, and hands the new
+ * connection to the original BlinkStick object, which replays mode and colors on it. Code holding the
+ * BlinkStick object keeps working and frames submitted during the outage are not lost.
+ *
+ * UsbDevice.getSerialNumber() is not available on the supported Android versions, so candidates are
+ * opened to read the serial. Devices must stay authorized for the application, permission is not
+ * requested while reconnecting.
+ */
+public class BlinkStickReconnector implements BlinkStick.FailureListener {
+
+	/**
+	 * Delay in milliseconds before the first attempt to find the device
+	 */
+	public static final long DEFAULT_RETRY_INTERVAL = 50;
+
+	/**
+	 * Longest delay in milliseconds between attempts
+	 */
+	public static final long MAX_RETRY_INTERVAL = 2000;
+
+	private static class Watch {
+		final BlinkStick blinkStick;
+		final String serial;
+		String deviceName;
+
+		Watch(BlinkStick blinkStick, String serial)
+		{
+			this.blinkStick = blinkStick;
+			this.serial = serial;
+		}
+	}
+
+	private final BlinkStickFinder finder;
+
+	private final ScheduledExecutorService executor;
+
+	private final HashMap<BlinkStick, Watch> watched = new HashMap<BlinkStick, Watch>();
+
+	private final LatencyHistogram blackout = new LatencyHistogram();
+
+	private long reconnects;
+
+	/**
+	 * Create reconnector
+	 *
+	 * @param finder	Finder with context used to find and open devices again
+	 */
+	public BlinkStickReconnector(BlinkStickFinder finder)
+	{
+		this.finder = finder;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "BlinkStickReconnector");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Reconnect device automatically when it drops off. The device must be connected, its serial is read now.
+	 *
+	 * @param blinkStick	Open device
+	 */
+	public void watch(BlinkStick blinkStick)
+	{
+		Watch watch = new Watch(blinkStick, blinkStick.getSerial());
+		if (blinkStick.getDevice() != null)
+		{
+			watch.deviceName = blinkStick.getDevice().getDeviceName();
+		}
+
+		synchronized (this)
+		{
+			watched.put(blinkStick, watch);
+		}
+		blinkStick.setFailureListener(this);
+	}
+
+	/**
+	 * Stop reconnecting a device
+	 *
+	 * @param blinkStick	Device passed to {@link #watch(BlinkStick)}
+	 */
+	public void unwatch(BlinkStick blinkStick)
+	{
+		synchronized (this)
+		{
+			watched.remove(blinkStick);
+		}
+		blinkStick.setFailureListener(null);
+	}
+
+	/**
+	 * Time from the first failed transfer until the state was restored on the new connection
+	 *
+	 * @return Blackout histogram
+	 */
+	public LatencyHistogram getBlackoutHistogram()
+	{
+		return blackout;
+	}
+
+	/**
+	 * @return Number of successful reconnects
+	 */
+	public synchronized long getReconnectCount()
+	{
+		return reconnects;
+	}
+
+	/**
+	 * Stop reconnecting all devices
+	 */
+	public void shutdown()
+	{
+		BlinkStick[] devices;
+		synchronized (this)
+		{
+			devices = watched.keySet().toArray(new BlinkStick[0]);
+		}
+
+		for (int i = 0; i < devices.length; i++)
+		{
+			unwatch(devices[i]);
+		}
+
+		executor.shutdownNow();
+	}
+
+	public void onTransferFailed(BlinkStick blinkStick, int result)
+	{
+		Watch watch;
+		synchronized (this)
+		{
+			watch = watched.get(blinkStick);
+		}
+
+		if (watch != null)
+		{
+			schedule(watch, System.nanoTime(), DEFAULT_RETRY_INTERVAL);
+		}
+	}
+
+	private void schedule(final Watch watch, final long failedAt, final long interval)
+	{
+		executor.schedule(new Runnable() {
+			public void run() {
+				attempt(watch, failedAt, interval);
+			}
+		}, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Try to reconnect, runs on the executor thread
+	 */
+	private void attempt(Watch watch, long failedAt, long interval)
+	{
+		synchronized (this)
+		{
+			if (watched.get(watch.blinkStick) != watch)
+			{
+				return;
+			}
+		}
+
+		if (!watch.blinkStick.isFailed())
+		{
+			// Transport assigned by someone else
+			return;
+		}
+
+		boolean reconnected = false;
+		try
+		{
+			reconnected = reconnect(watch);
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+		}
+
+		if (reconnected)
+		{
+			blackout.record(System.nanoTime() - failedAt);
+			synchronized (this)
+			{
+				reconnects++;
+			}
+		}
+		else
+		{
+			schedule(watch, failedAt, Math.min(interval * 2, MAX_RETRY_INTERVAL));
+		}
+	}
+
+	private boolean reconnect(Watch watch)
+	{
+		BlinkStick[] found = finder.findAll();
+
+		// The device usually comes back under the same name after a short glitch, try that one first
+		for (int pass = 0; pass < 2; pass++)
+		{
+			if (pass == 1 && watch.serial == null)
+			{
+				break;
+			}
+
+			for (int i = 0; i < found.length; i++)
+			{
+				String name = found[i].getDevice().getDeviceName();
+				boolean sameName = name.equals(watch.deviceName);
+
+				if (sameName != (pass == 0) || isInUse(name, watch))
+				{
+					continue;
+				}
+
+				if (tryCandidate(watch, found[i]))
+				{
+					watch.deviceName = name;
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Open candidate and take it over if the serial matches
+	 */
+	private boolean tryCandidate(Watch watch, BlinkStick candidate)
+	{
+		try
+		{
+			if (!finder.openDevice(candidate))
+			{
+				return false;
+			}
+		}
+		catch (BlinkStickUnauthorizedException e)
+		{
+			return false;
+		}
+
+		String serial = candidate.getSerial();
+		if (watch.serial == null ? !candidate.getDevice().getDeviceName().equals(watch.deviceName) : !watch.serial.equals(serial))
+		{
+			candidate.close();
+			return false;
+		}
+
+		watch.blinkStick.reconnect(candidate);
+		return true;
+	}
+
+	/**
+	 * Check if another watched device is connected to the USB device with the name
+	 */
+	private synchronized boolean isInUse(String name, Watch watch)
+	{
+		for (Watch other : watched.values())
+		{
+			if (other != watch && name.equals(other.deviceName) && !other.blinkStick.isFailed())
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
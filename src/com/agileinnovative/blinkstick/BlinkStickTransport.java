@@ -0,0 +1,45 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Channel used by {@link BlinkStick} to exchange feature reports with a device.
+ */
+public interface BlinkStickTransport {
+
+	/**
+	 * Send feature report to the device
+	 * 
+	 * @param buffer	Report data, first byte has to be report id
+	 * @param length	Number of bytes to send
+	 * @return Number of bytes sent or negative value on failure
+	 */
+	int sendFeatureReport(byte[] buffer, int length);
+
+	/**
+	 * Get feature report from the device
+	 * 
+	 * @param buffer	Buffer to receive the report, first byte has to be report id
+	 * @param length	Number of bytes to read
+	 * @return Number of bytes read or negative value on failure
+	 */
+	int getFeatureReport(byte[] buffer, int length);
+
+	/**
+	 * @return Serial number of the device
+	 */
+	String getSerial();
+
+	/**
+	 * @return Manufacturer name of the device or empty string if not available
+	 */
+	String getManufacturer();
+
+	/**
+	 * @return Product name of the device or empty string if not available
+	 */
+	String getProduct();
+
+	/**
+	 * Release the device
+	 */
+	void close();
+}
@@ -0,0 +1,735 @@
+package com.agileinnovative.blinkstick;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Background writer which sends frames to BlinkStick at the rate the device can sustain.
+ *
+ * Producers submit frames without blocking. Every channel has a single pending slot, so a frame
+ * submitted while the previous one is still waiting replaces it and the device always receives the
+ * most recent frame as soon as the previous transfer completes.
+ *
+ * The writer also runs transitions started with {@link #fadeTo(LedFrame, int, Easing)}. Intermediate
+ * frames are computed on the writer thread, and a new target arriving during a transition continues
+ * from the frame currently shown instead of jumping back to the start.
+ *
+ * When the output is static the thread stays parked: frames equal to the one last sent are not
+ * queued, and nothing is sent until a frame changes or a refresh is requested after a brightness or
+ * mode change. An optional keepalive resends the last frames at a low rate.
+ *
+ * The thread is started lazily with the first frame. After {@link #shutdown()} the writer is closed
+ * for good and frames submitted to it are discarded.
+ */
+public class BlinkStickWriter {
+
+	/**
+	 * Time between intermediate frames of a transition in nanoseconds, unless the frame rate is limited further
+	 */
+	private static final long TRANSITION_INTERVAL = 1000000000L / 60;
+
+	/**
+	 * Notified on the writer thread when a submitted frame is done with
+	 */
+	public interface Listener {
+		/**
+		 * Called once for every frame accepted by {@link BlinkStickWriter#submit(LedFrame)}: after its transfer
+		 * completed, or after it was dropped because it equals the frame last sent. A frame replaced while
+		 * waiting is reported together with the frame which replaced it. Also called after frames sent for
+		 * transitions and keep alive. The channel can then accept another frame without replacing one.
+		 *
+		 * @param channel	Channel (0 - R, 1 - G, 2 - B)
+		 */
+		void onFrameSent(int channel);
+	}
+
+	/**
+	 * Transition state of a channel
+	 */
+	private static class Transition {
+		final LedFrame from;
+		final LedFrame to;
+		final LedFrame current;
+		long start;
+		long duration;
+		long nextTick;
+		Easing easing;
+		boolean active;
+
+		Transition(int ledCount, int channel)
+		{
+			from = new LedFrame(ledCount);
+			to = new LedFrame(ledCount);
+			current = new LedFrame(ledCount);
+			from.setChannel(channel);
+			to.setChannel(channel);
+			current.setChannel(channel);
+		}
+	}
+
+	private final BlinkStick blinkStick;
+
+	private final LedFrame[] pending = new LedFrame[3];
+
+	private final LedFrame[] sending = new LedFrame[3];
+
+	private final boolean[] dirty = new boolean[3];
+
+	/**
+	 * Channels with frames dropped as unchanged which listeners were not notified about yet
+	 */
+	private final boolean[] unchanged = new boolean[3];
+
+	/**
+	 * Channels which were set outside of the writer since it last sent them
+	 */
+	private final boolean[] overwritten = new boolean[3];
+
+	private final Transition[] transitions = new Transition[3];
+
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private final LatencyHistogram transferTime = new LatencyHistogram();
+
+	private long minIntervalNanos;
+
+	private long framesSubmitted;
+
+	private long framesReplaced;
+
+	private volatile long framesSent;
+
+	private long framesUnchanged;
+
+	private long keepAliveNanos;
+
+	private boolean refreshRequested;
+
+	private final LatencyHistogram wakeLatency = new LatencyHistogram();
+
+	private boolean parked;
+
+	private long parkedAt;
+
+	private long wokenAt;
+
+	private long activeSince;
+
+	private long idleNanos;
+
+	private long activeNanos;
+
+	private Thread thread;
+
+	private boolean running;
+
+	/**
+	 * Set by shutdown, the thread is not started again
+	 */
+	private boolean closed;
+
+	/**
+	 * Create writer for a device. The thread is started with the first submitted frame.
+	 *
+	 * @param blinkStick	Device to send frames to
+	 */
+	public BlinkStickWriter(BlinkStick blinkStick)
+	{
+		this.blinkStick = blinkStick;
+	}
+
+	/**
+	 * Limit the rate at which frames are sent. The limit is shared by all channels: at most fps times
+	 * per second the writer sends the latest frame of every channel with a new frame, so frames on one
+	 * channel also hold back the others.
+	 *
+	 * @param fps	Maximum rounds of transfers per second across all channels, 0 to send as fast as the device accepts them
+	 */
+	public synchronized void setMaxFrameRate(int fps)
+	{
+		minIntervalNanos = fps > 0 ? 1000000000L / fps : 0;
+	}
+
+	/**
+	 * Resend the last frames periodically while the output is static, for example to recover
+	 * devices which were replugged without notice
+	 *
+	 * @param millis	Time without sent frames after which the last frames are sent again, 0 to disable
+	 */
+	public synchronized void setKeepAlive(long millis)
+	{
+		keepAliveNanos = millis > 0 ? millis * 1000000L : 0;
+		notifyAll();
+	}
+
+	/**
+	 * Send the last frames of all channels again, used when the brightness limit or mode changed
+	 * and the device has to show the same frames differently
+	 */
+	public synchronized void refresh()
+	{
+		if (closed || sending[0] == null && sending[1] == null && sending[2] == null)
+		{
+			return;
+		}
+
+		refreshRequested = true;
+		wake();
+	}
+
+	/**
+	 * Add listener notified after every sent frame
+	 *
+	 * @param listener	Listener to add
+	 */
+	public void addListener(Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove listener added with {@link #addListener(Listener)}
+	 *
+	 * @param listener	Listener to remove
+	 */
+	public void removeListener(Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Queue frame to be sent. The frame is copied, so the caller can reuse it immediately.
+	 * A frame still waiting for the same channel is replaced and a running transition on the channel is stopped.
+	 * A frame equal to the last sent one is dropped if nothing is waiting for the channel and the
+	 * channel was not set outside of the writer since. Frames submitted after {@link #shutdown()} are discarded.
+	 *
+	 * @param frame	Frame to send
+	 */
+	public synchronized void submit(LedFrame frame)
+	{
+		if (closed)
+		{
+			return;
+		}
+
+		int channel = frame.getChannel();
+
+		if (transitions[channel] != null)
+		{
+			transitions[channel].active = false;
+		}
+
+		framesSubmitted++;
+		if (dirty[channel])
+		{
+			framesReplaced++;
+		}
+		else if (!overwritten[channel] && sending[channel] != null && sending[channel].contentEquals(frame))
+		{
+			framesUnchanged++;
+
+			// Listeners are called on the writer thread, never with the lock held
+			if (!listeners.isEmpty())
+			{
+				unchanged[channel] = true;
+				if (!running)
+				{
+					start();
+				}
+				wake();
+			}
+			return;
+		}
+
+		stage(frame);
+	}
+
+	/**
+	 * Fade from the frame currently shown on the channel of the target to the target frame.
+	 * If a transition is already running on the channel it continues from its current state.
+	 *
+	 * @param target	Frame to fade to, copied so the caller can reuse it immediately
+	 * @param durationMs	Duration of the transition in milliseconds, 0 to show the target immediately
+	 * @param easing	Easing curve of the transition
+	 */
+	public synchronized void fadeTo(LedFrame target, int durationMs, Easing easing)
+	{
+		if (closed)
+		{
+			return;
+		}
+
+		if (durationMs <= 0)
+		{
+			submit(target);
+			return;
+		}
+
+		int channel = target.getChannel();
+
+		Transition transition = transitions[channel];
+		if (transition == null || transition.to.getLedCount() != target.getLedCount())
+		{
+			transition = new Transition(target.getLedCount(), channel);
+			transitions[channel] = transition;
+			copyShown(channel, transition.current);
+		}
+		else if (!transition.active)
+		{
+			copyShown(channel, transition.current);
+		}
+
+		long now = System.nanoTime();
+
+		transition.from.copyFrom(transition.current);
+		transition.to.copyFrom(target);
+		transition.easing = easing;
+		transition.start = now;
+		transition.duration = durationMs * 1000000L;
+		transition.nextTick = now;
+		transition.active = true;
+
+		framesSubmitted++;
+
+		if (!running)
+		{
+			start();
+		}
+
+		wake();
+	}
+
+	/**
+	 * Check if a transition is running on a channel
+	 *
+	 * @param channel	Channel (0 - R, 1 - G, 2 - B)
+	 * @return true while a transition is in progress
+	 */
+	public synchronized boolean isFading(int channel)
+	{
+		return transitions[channel] != null && transitions[channel].active;
+	}
+
+	/**
+	 * Check if the writer was shut down
+	 *
+	 * @return true if frames are discarded
+	 */
+	public synchronized boolean isShutdown()
+	{
+		return closed;
+	}
+
+	/**
+	 * Stop the writer thread for good. Frames which were not sent yet are discarded and transitions stopped.
+	 */
+	public void shutdown()
+	{
+		Thread t;
+		synchronized (this)
+		{
+			closed = true;
+			running = false;
+			t = thread;
+			thread = null;
+
+			for (int i = 0; i < dirty.length; i++)
+			{
+				dirty[i] = false;
+				unchanged[i] = false;
+				if (transitions[i] != null)
+				{
+					transitions[i].active = false;
+				}
+			}
+			notifyAll();
+		}
+
+		if (t != null && t != Thread.currentThread())
+		{
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Time from {@link LedFrame#getTimestamp()} of a frame until it is handed to the USB transfer.
+	 * Frames without timestamp are not recorded.
+	 *
+	 * @return Latency histogram
+	 */
+	public LatencyHistogram getLatencyHistogram()
+	{
+		return latency;
+	}
+
+	/**
+	 * Duration of the color report transfers
+	 *
+	 * @return Transfer time histogram
+	 */
+	public LatencyHistogram getTransferTimeHistogram()
+	{
+		return transferTime;
+	}
+
+	/**
+	 * @return Number of frames and transitions submitted
+	 */
+	public synchronized long getFramesSubmitted()
+	{
+		return framesSubmitted;
+	}
+
+	/**
+	 * @return Number of frames replaced by a newer one before they were sent
+	 */
+	public synchronized long getFramesReplaced()
+	{
+		return framesReplaced;
+	}
+
+	/**
+	 * @return Number of frames sent to the device
+	 */
+	public long getFramesSent()
+	{
+		return framesSent;
+	}
+
+	/**
+	 * @return Number of submitted frames dropped because they were equal to the frame last sent
+	 */
+	public synchronized long getFramesUnchanged()
+	{
+		return framesUnchanged;
+	}
+
+	/**
+	 * Time from a submission to a parked writer until its thread resumed
+	 *
+	 * @return Wake latency histogram
+	 */
+	public LatencyHistogram getWakeLatencyHistogram()
+	{
+		return wakeLatency;
+	}
+
+	/**
+	 * @return Nanoseconds the writer thread spent parked waiting for frames
+	 */
+	public synchronized long getIdleTime()
+	{
+		return parked ? idleNanos + System.nanoTime() - parkedAt : idleNanos;
+	}
+
+	/**
+	 * @return Nanoseconds the writer thread spent sending frames and computing transitions
+	 */
+	public synchronized long getActiveTime()
+	{
+		return parked || !running ? activeNanos : activeNanos + System.nanoTime() - activeSince;
+	}
+
+	/**
+	 * Copy frame into the pending slot of its channel and wake the writer thread
+	 */
+	private void stage(LedFrame frame)
+	{
+		int channel = frame.getChannel();
+
+		LedFrame slot = pending[channel];
+		if (slot == null || slot.getLedCount() != frame.getLedCount())
+		{
+			slot = new LedFrame(frame.getLedCount());
+			pending[channel] = slot;
+		}
+
+		slot.copyFrom(frame);
+		slot.setTimestamp(frame.getTimestamp());
+		dirty[channel] = true;
+
+		if (!running)
+		{
+			start();
+		}
+
+		wake();
+	}
+
+	/**
+	 * Wake the writer thread, noting the time if it is parked
+	 */
+	private void wake()
+	{
+		if (parked && wokenAt == 0)
+		{
+			wokenAt = System.nanoTime();
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Copy the frame the device shows next on a channel, black if no frame with the same LED count was sent yet
+	 */
+	private void copyShown(int channel, LedFrame target)
+	{
+		LedFrame shown = dirty[channel] ? pending[channel] : sending[channel];
+
+		if (shown != null && shown.getLedCount() == target.getLedCount())
+		{
+			target.copyFrom(shown);
+		}
+		else
+		{
+			target.clear();
+		}
+	}
+
+	/**
+	 * Stage intermediate frames of the transitions which are due
+	 *
+	 * @return Nanoseconds until the next intermediate frame is due, -1 if no transition is running
+	 */
+	private long advanceTransitions(long now)
+	{
+		long wait = -1;
+
+		for (int channel = 0; channel < transitions.length; channel++)
+		{
+			Transition transition = transitions[channel];
+			if (transition == null || !transition.active)
+			{
+				continue;
+			}
+
+			if (now - transition.nextTick >= 0)
+			{
+				long elapsed = now - transition.start;
+				int progress = elapsed >= transition.duration
+						? Easing.ONE
+						: (int) ((elapsed << 16) / transition.duration);
+
+				interpolate(transition, transition.easing.apply(progress));
+				transition.current.setTimestamp(now);
+				stage(transition.current);
+
+				if (progress >= Easing.ONE)
+				{
+					transition.active = false;
+					continue;
+				}
+
+				transition.nextTick = now + Math.max(TRANSITION_INTERVAL, minIntervalNanos);
+			}
+
+			long due = transition.nextTick - now;
+			if (wait < 0 || due < wait)
+			{
+				wait = due;
+			}
+		}
+
+		return wait;
+	}
+
+	private static void interpolate(Transition transition, int eased)
+	{
+		byte[] from = transition.from.getReport();
+		byte[] to = transition.to.getReport();
+		byte[] out = transition.current.getReport();
+		int end = LedFrame.DATA_OFFSET + transition.current.getLedCount() * 3;
+
+		for (int i = LedFrame.DATA_OFFSET; i < end; i++)
+		{
+			int a = from[i] & 0xFF;
+			int b = to[i] & 0xFF;
+			out[i] = (byte) (a + (((b - a) * eased) >> 16));
+		}
+	}
+
+	private void start()
+	{
+		running = true;
+		activeSince = System.nanoTime();
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "BlinkStickWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void loop()
+	{
+		Thread current = Thread.currentThread();
+		long lastSent = 0;
+		boolean[] send = new boolean[dirty.length];
+		boolean[] notify = new boolean[dirty.length];
+
+		while (true)
+		{
+			long interval;
+			synchronized (this)
+			{
+				interval = minIntervalNanos;
+			}
+
+			if (interval > 0)
+			{
+				long wait = lastSent + interval - System.nanoTime();
+				if (wait > 0)
+				{
+					try {
+						Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+					} catch (InterruptedException e) {
+						stopFrom(current);
+						return;
+					}
+				}
+			}
+
+			synchronized (this)
+			{
+				boolean refresh = false;
+
+				while (running && thread == current)
+				{
+					long now = System.nanoTime();
+					long wait = advanceTransitions(now);
+					if (dirty[0] || dirty[1] || dirty[2] || unchanged[0] || unchanged[1] || unchanged[2])
+					{
+						break;
+					}
+
+					if (refreshRequested)
+					{
+						refresh = true;
+						break;
+					}
+
+					if (keepAliveNanos > 0 && lastSent != 0)
+					{
+						long due = lastSent + keepAliveNanos - now;
+						if (due <= 0)
+						{
+							refresh = true;
+							break;
+						}
+						wait = wait < 0 ? due : Math.min(wait, due);
+					}
+
+					parked = true;
+					parkedAt = now;
+					activeNanos += now - activeSince;
+
+					try {
+						if (wait < 0)
+						{
+							wait();
+						}
+						else
+						{
+							wait(Math.max(1, wait / 1000000L));
+						}
+					} catch (InterruptedException e) {
+						stopFrom(current);
+						return;
+					} finally {
+						parked = false;
+						activeSince = System.nanoTime();
+						idleNanos += activeSince - parkedAt;
+					}
+
+					if (wokenAt != 0)
+					{
+						wakeLatency.record(activeSince - wokenAt);
+						wokenAt = 0;
+					}
+				}
+
+				if (!running || thread != current)
+				{
+					return;
+				}
+
+				refreshRequested = false;
+
+				for (int channel = 0; channel < dirty.length; channel++)
+				{
+					send[channel] = dirty[channel] || (refresh && sending[channel] != null);
+					notify[channel] = send[channel] || unchanged[channel];
+					unchanged[channel] = false;
+					if (send[channel])
+					{
+						overwritten[channel] = false;
+					}
+					if (dirty[channel])
+					{
+						LedFrame frame = pending[channel];
+						pending[channel] = sending[channel];
+						sending[channel] = frame;
+						dirty[channel] = false;
+					}
+				}
+			}
+
+			for (int channel = 0; channel < sending.length; channel++)
+			{
+				if (!notify[channel])
+				{
+					continue;
+				}
+
+				// Frames the device mode makes redundant are counted by the device, not as sent
+				LedFrame frame = sending[channel];
+				long start = System.nanoTime();
+				if (send[channel] && blinkStick.writeFrame(frame))
+				{
+					if (frame.getTimestamp() > 0)
+					{
+						latency.record(start - frame.getTimestamp());
+					}
+
+					lastSent = System.nanoTime();
+					transferTime.record(lastSent - start);
+					framesSent++;
+				}
+
+				for (Listener listener : listeners)
+				{
+					listener.onFrameSent(channel);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Note that colors of a channel were sent outside of the writer, so the device no longer shows
+	 * the frame last sent by the writer
+	 *
+	 * @param channel	Channel (0 - R, 1 - G, 2 - B), other values are ignored
+	 */
+	synchronized void invalidate(int channel)
+	{
+		if (channel >= 0 && channel < overwritten.length)
+		{
+			overwritten[channel] = true;
+		}
+	}
+
+	private synchronized void stopFrom(Thread current)
+	{
+		if (thread == current)
+		{
+			running = false;
+			thread = null;
+		}
+	}
+}
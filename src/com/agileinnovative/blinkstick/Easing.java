@@ -0,0 +1,126 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Easing curve precomputed into a fixed point table.
+ *
+ * Progress and result are both fixed point values where {@link #ONE} stands for 1.0. The curve is
+ * sampled once into a table of {@link #TABLE_SIZE} segments and evaluated by linear interpolation
+ * between table entries, so applying an easing costs a table lookup and a multiplication.
+ */
+public class Easing {
+
+	/**
+	 * Fixed point representation of 1.0
+	 */
+	public static final int ONE = 1 << 16;
+
+	/**
+	 * Number of table segments
+	 */
+	public static final int TABLE_SIZE = 256;
+
+	/**
+	 * Curve to be sampled into a table
+	 */
+	public interface Curve {
+		/**
+		 * @param t	Progress 0..1
+		 * @return Eased progress, 0 at the start and 1 at the end
+		 */
+		double value(double t);
+	}
+
+	/**
+	 * Constant speed
+	 */
+	public static final Easing LINEAR = new Easing(new Curve() {
+		public double value(double t) {
+			return t;
+		}
+	});
+
+	/**
+	 * Start slowly and accelerate
+	 */
+	public static final Easing EASE_IN = new Easing(new Curve() {
+		public double value(double t) {
+			return t * t * t;
+		}
+	});
+
+	/**
+	 * Start quickly and decelerate
+	 */
+	public static final Easing EASE_OUT = new Easing(new Curve() {
+		public double value(double t) {
+			double u = 1 - t;
+			return 1 - u * u * u;
+		}
+	});
+
+	/**
+	 * Accelerate in the first half and decelerate in the second half
+	 */
+	public static final Easing EASE_IN_OUT = new Easing(new Curve() {
+		public double value(double t) {
+			if (t < 0.5)
+			{
+				return 4 * t * t * t;
+			}
+			double u = -2 * t + 2;
+			return 1 - u * u * u / 2;
+		}
+	});
+
+	/**
+	 * Smooth sinusoidal start and end
+	 */
+	public static final Easing SINE = new Easing(new Curve() {
+		public double value(double t) {
+			return 0.5 - 0.5 * Math.cos(Math.PI * t);
+		}
+	});
+
+	private final int[] table = new int[TABLE_SIZE + 1];
+
+	/**
+	 * Precompute a custom curve
+	 *
+	 * @param curve	Curve to sample
+	 */
+	public Easing(Curve curve)
+	{
+		for (int i = 0; i <= TABLE_SIZE; i++)
+		{
+			table[i] = (int) Math.round(curve.value((double) i / TABLE_SIZE) * ONE);
+		}
+
+		// Transitions always end exactly at the target
+		table[0] = 0;
+		table[TABLE_SIZE] = ONE;
+	}
+
+	/**
+	 * Evaluate the curve
+	 *
+	 * @param progress	Fixed point progress 0..{@link #ONE}, values outside are clamped
+	 * @return Fixed point eased progress
+	 */
+	public int apply(int progress)
+	{
+		if (progress <= 0)
+		{
+			return table[0];
+		}
+		if (progress >= ONE)
+		{
+			return table[TABLE_SIZE];
+		}
+
+		int position = progress * TABLE_SIZE;
+		int index = position >>> 16;
+		int fraction = position & 0xFFFF;
+
+		return table[index] + (int) (((long) (table[index + 1] - table[index]) * fraction) >> 16);
+	}
+}
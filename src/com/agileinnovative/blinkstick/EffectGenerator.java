@@ -0,0 +1,360 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Procedural effect rendered into packed GRB frames.
+ *
+ * Generators use shared precomputed sine and palette tables and integer math only. State is kept
+ * per LED and allocated when the generator is created, so rendering a frame does not allocate.
+ * Random values come from {@link FastRandom#hash(int, int)} of the LED index and the frame tick,
+ * which keeps the output reproducible for the same sequence of times and lets
+ * {@link VirtualCanvas} render disjoint ranges of one generator on several threads.
+ */
+public abstract class EffectGenerator implements VirtualCanvas.Effect {
+
+	/**
+	 * One period of a sine wave in 256 steps scaled to 0..255
+	 */
+	private static final int[] SINE = new int[256];
+
+	/**
+	 * Fully saturated hue wheel in 256 steps, colors as int
+	 */
+	private static final int[] RAINBOW_PALETTE = new int[256];
+
+	/**
+	 * Black through red and yellow to white in 256 steps, colors as int
+	 */
+	private static final int[] HEAT_PALETTE = new int[256];
+
+	static
+	{
+		for (int i = 0; i < 256; i++)
+		{
+			SINE[i] = (int) Math.round(127.5 + 127.5 * Math.sin(2 * Math.PI * i / 256));
+
+			int sector = i * 6 / 256;
+			int rise = (i * 6 - sector * 256) * 255 / 256;
+			int fall = 255 - rise;
+			int r, g, b;
+			switch (sector)
+			{
+			case 0: r = 255; g = rise; b = 0; break;
+			case 1: r = fall; g = 255; b = 0; break;
+			case 2: r = 0; g = 255; b = rise; break;
+			case 3: r = 0; g = fall; b = 255; break;
+			case 4: r = rise; g = 0; b = 255; break;
+			default: r = 255; g = 0; b = fall; break;
+			}
+			RAINBOW_PALETTE[i] = (r << 16) | (g << 8) | b;
+
+			int heat = i * 3;
+			r = Math.min(255, heat);
+			g = Math.min(255, Math.max(0, heat - 256));
+			b = Math.min(255, Math.max(0, heat - 512));
+			HEAT_PALETTE[i] = (r << 16) | (g << 8) | b;
+		}
+	}
+
+	/**
+	 * Get the colors of the rainbow, for example for {@link Twinkle}
+	 *
+	 * @return Copy of the fully saturated hue wheel in 256 steps, colors as int
+	 */
+	public static int[] getRainbowPalette()
+	{
+		return RAINBOW_PALETTE.clone();
+	}
+
+	/**
+	 * Get the colors of the fire
+	 *
+	 * @return Copy of the palette from black through red and yellow to white in 256 steps, colors as int
+	 */
+	public static int[] getHeatPalette()
+	{
+		return HEAT_PALETTE.clone();
+	}
+
+	/**
+	 * Look up the sine table
+	 *
+	 * @param phase	Phase in 256 steps per period, only the low 8 bits are used
+	 * @return Sine scaled to 0..255
+	 */
+	protected static int sine(int phase)
+	{
+		return SINE[phase & 0xFF];
+	}
+
+	/**
+	 * Total number of LEDs the effect is laid out for
+	 */
+	protected final int size;
+
+	/**
+	 * @param size	Total number of LEDs the effect is laid out for
+	 */
+	protected EffectGenerator(int size)
+	{
+		if (size < 1)
+		{
+			throw new IllegalArgumentException("Size must be positive");
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Render a range of LEDs into a GRB buffer. Called concurrently for disjoint ranges.
+	 *
+	 * @param grb	Buffer in GRB byte order
+	 * @param offset	Byte offset of LED 0 in the buffer
+	 * @param from	Index of the first LED
+	 * @param to	Index after the last LED
+	 * @param time	Frame time in nanoseconds
+	 */
+	protected abstract void render(byte[] grb, int offset, int from, int to, long time);
+
+	/**
+	 * Render into a frame, LEDs 0 to the LED count of the frame
+	 *
+	 * @param frame	Frame to write to
+	 * @param time	Frame time in nanoseconds, for example {@link System#nanoTime()}
+	 */
+	public void render(LedFrame frame, long time)
+	{
+		render(frame.getReport(), LedFrame.DATA_OFFSET, 0, Math.min(size, frame.getLedCount()), time);
+	}
+
+	public void render(VirtualCanvas canvas, int from, int to, long time)
+	{
+		render(canvas.getData(), 0, from, Math.min(size, to), time);
+	}
+
+	/**
+	 * Write a color scaled by a level into the buffer
+	 */
+	protected static void put(byte[] grb, int index, int color, int level)
+	{
+		grb[index] = (byte) ((((color >> 8) & 0xFF) * level) >> 8);
+		grb[index + 1] = (byte) ((((color >> 16) & 0xFF) * level) >> 8);
+		grb[index + 2] = (byte) (((color & 0xFF) * level) >> 8);
+	}
+
+	/**
+	 * Convert time to a phase of 256 steps per period
+	 */
+	protected static int phase(long time, long periodMs)
+	{
+		long ms = time / 1000000L;
+		return (int) (((ms % periodMs) << 8) / periodMs);
+	}
+
+	/**
+	 * Rainbow moving along the LEDs
+	 */
+	public static class Rainbow extends EffectGenerator {
+		private final int spread;
+		private final long periodMs;
+
+		/**
+		 * @param size	Total number of LEDs
+		 * @param repeats	Number of full hue wheels visible along the LEDs
+		 * @param periodMs	Time in milliseconds for the colors to cycle once
+		 */
+		public Rainbow(int size, int repeats, long periodMs)
+		{
+			super(size);
+			this.spread = Math.max(1, repeats) * 65536 / size;
+			this.periodMs = Math.max(1, periodMs);
+		}
+
+		protected void render(byte[] grb, int offset, int from, int to, long time)
+		{
+			int shift = phase(time, periodMs);
+			for (int i = from; i < to; i++)
+			{
+				put(grb, offset + i * 3, RAINBOW_PALETTE[(((i * spread) >> 8) + shift) & 0xFF], 256);
+			}
+		}
+	}
+
+	/**
+	 * Dot with a fading tail running along the LEDs
+	 */
+	public static class Chase extends EffectGenerator {
+		private final int color;
+		private final int background;
+		private final int tail;
+		private final long periodMs;
+
+		/**
+		 * @param size	Total number of LEDs
+		 * @param color	color of the dot as int
+		 * @param background	color of the other LEDs as int
+		 * @param tail	Length of the tail in LEDs
+		 * @param periodMs	Time in milliseconds for one run over all LEDs
+		 */
+		public Chase(int size, int color, int background, int tail, long periodMs)
+		{
+			super(size);
+			this.color = color;
+			this.background = background;
+			this.tail = Math.max(1, tail);
+			this.periodMs = Math.max(1, periodMs);
+		}
+
+		protected void render(byte[] grb, int offset, int from, int to, long time)
+		{
+			long ms = time / 1000000L;
+			int head = (int) ((ms % periodMs) * size / periodMs);
+
+			for (int i = from; i < to; i++)
+			{
+				int distance = head - i;
+				if (distance < 0)
+				{
+					distance += size;
+				}
+
+				if (distance < tail)
+				{
+					put(grb, offset + i * 3, color, 256 - (distance << 8) / tail);
+				}
+				else
+				{
+					put(grb, offset + i * 3, background, 256);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flickering flames, every LED drifts towards a new random heat each tick
+	 */
+	public static class Fire extends EffectGenerator {
+		private final int[] heat;
+		private final int[] ticks;
+		private final int minHeat;
+		private final long tickMs;
+
+		/**
+		 * @param size	Total number of LEDs
+		 * @param minHeat	Lowest heat 0..255, higher values keep the flames brighter
+		 * @param tickMs	Time in milliseconds between changes of the target heat
+		 */
+		public Fire(int size, int minHeat, long tickMs)
+		{
+			super(size);
+			this.heat = new int[size];
+			this.ticks = new int[size];
+			this.minHeat = Math.max(0, Math.min(255, minHeat));
+			this.tickMs = Math.max(1, tickMs);
+		}
+
+		protected void render(byte[] grb, int offset, int from, int to, long time)
+		{
+			int tick = (int) (time / 1000000L / tickMs);
+			int range = 256 - minHeat;
+
+			for (int i = from; i < to; i++)
+			{
+				int h = heat[i];
+				for (int steps = Math.min(8, tick - ticks[i]); steps > 0; steps--)
+				{
+					int target = minHeat + (((FastRandom.hash(i, tick - steps + 1) & 0xFF) * range) >> 8);
+					h += (target - h) >> 1;
+				}
+				heat[i] = h;
+				ticks[i] = tick;
+
+				put(grb, offset + i * 3, HEAT_PALETTE[h], 256);
+			}
+		}
+	}
+
+	/**
+	 * LEDs lighting up at random and fading out
+	 */
+	public static class Twinkle extends EffectGenerator {
+		private final int[] level;
+		private final int[] ticks;
+		private final int[] palette;
+		private final int[] colors;
+		private final int density;
+		private final int fade;
+		private final long tickMs;
+
+		/**
+		 * @param size	Total number of LEDs
+		 * @param palette	Colors picked at random for new twinkles, for example {@link EffectGenerator#getRainbowPalette()}
+		 * @param density	Chance per LED and tick to light up, 0..256 in 1/256 steps
+		 * @param fade	Brightness lost per tick 1..256
+		 * @param tickMs	Time in milliseconds between ticks
+		 */
+		public Twinkle(int size, int[] palette, int density, int fade, long tickMs)
+		{
+			super(size);
+			this.level = new int[size];
+			this.ticks = new int[size];
+			this.colors = new int[size];
+			this.palette = palette.clone();
+			this.density = density;
+			this.fade = Math.max(1, fade);
+			this.tickMs = Math.max(1, tickMs);
+		}
+
+		protected void render(byte[] grb, int offset, int from, int to, long time)
+		{
+			int tick = (int) (time / 1000000L / tickMs);
+
+			for (int i = from; i < to; i++)
+			{
+				int elapsed = tick - ticks[i];
+				if (elapsed != 0)
+				{
+					ticks[i] = tick;
+					level[i] = Math.max(0, level[i] - fade * Math.min(256, Math.abs(elapsed)));
+
+					int random = FastRandom.hash(i, tick);
+					if ((random & 0xFF) < density)
+					{
+						level[i] = 256;
+						colors[i] = palette[((random >>> 8) & 0xFFFF) % palette.length];
+					}
+				}
+
+				put(grb, offset + i * 3, colors[i], level[i]);
+			}
+		}
+	}
+
+	/**
+	 * All LEDs fading in and out together
+	 */
+	public static class Breathe extends EffectGenerator {
+		private final int color;
+		private final long periodMs;
+
+		/**
+		 * @param size	Total number of LEDs
+		 * @param color	color as int
+		 * @param periodMs	Time in milliseconds for one breath
+		 */
+		public Breathe(int size, int color, long periodMs)
+		{
+			super(size);
+			this.color = color;
+			this.periodMs = Math.max(1, periodMs);
+		}
+
+		protected void render(byte[] grb, int offset, int from, int to, long time)
+		{
+			// Start dark, sine shifted by a quarter period
+			int level = sine(phase(time, periodMs) + 192) + 1;
+			for (int i = from; i < to; i++)
+			{
+				put(grb, offset + i * 3, color, level);
+			}
+		}
+	}
+}
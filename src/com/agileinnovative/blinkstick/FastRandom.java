@@ -0,0 +1,82 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Small xorshift pseudo random generator for effects.
+ *
+ * Unlike java.util.Random it has no synchronization and keeps its state in one int, so an instance
+ * can be kept per effect or device and used every frame. Not suitable for anything security related.
+ */
+public class FastRandom {
+
+	private int state;
+
+	/**
+	 * Create generator seeded from the clock
+	 */
+	public FastRandom()
+	{
+		this((int) System.nanoTime());
+	}
+
+	/**
+	 * Create generator with a fixed seed, the sequence is the same for equal seeds
+	 *
+	 * @param seed	Seed value
+	 */
+	public FastRandom(int seed)
+	{
+		setSeed(seed);
+	}
+
+	/**
+	 * Restart the sequence
+	 *
+	 * @param seed	Seed value
+	 */
+	public void setSeed(int seed)
+	{
+		// Zero is the only state xorshift can not leave
+		state = seed != 0 ? seed : 0x9E3779B9;
+	}
+
+	/**
+	 * @return Next value with all 32 bits random
+	 */
+	public int nextInt()
+	{
+		int x = state;
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		state = x;
+		return x;
+	}
+
+	/**
+	 * @param bound	Upper bound 1..65536
+	 * @return Next value 0 (inclusive) to bound (exclusive)
+	 */
+	public int nextInt(int bound)
+	{
+		return (int) (((nextInt() >>> 16) * (long) bound) >>> 16);
+	}
+
+	/**
+	 * Stateless random value for a pair of inputs, used where several threads need reproducible
+	 * random values, for example per LED and frame
+	 *
+	 * @param a	First input
+	 * @param b	Second input
+	 * @return Well mixed 32 bit value
+	 */
+	public static int hash(int a, int b)
+	{
+		int h = a * 0x9E3779B1 + b * 0x85EBCA77;
+		h ^= h >>> 16;
+		h *= 0x7FEB352D;
+		h ^= h >>> 15;
+		h *= 0x846CA68B;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -0,0 +1,296 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Subscriber which sends frames to a channel of a device and requests new frames only when the
+ * device has taken the previous one, so upstream producers slow down to the rate the USB transfer
+ * sustains instead of flooding the device or guessing at sleeps.
+ *
+ * The sink holds one frame in flight on the background writer and a small buffer behind it.
+ * Producers that respect demand never fill the buffer. Frames arriving while it is full anyway,
+ * from producers which can not slow down, are handled by the overflow policy.
+ */
+public class FrameSink implements FrameSubscriber, BlinkStickWriter.Listener {
+
+	/**
+	 * Drop the oldest buffered frame to make room for the new one
+	 */
+	public static final int DROP_OLDEST = 0;
+
+	/**
+	 * Drop the frame that does not fit into the buffer
+	 */
+	public static final int DROP_NEWEST = 1;
+
+	/**
+	 * Replace the most recently buffered frame with the new one
+	 */
+	public static final int CONFLATE = 2;
+
+	private final BlinkStickWriter writer;
+
+	private final int channel;
+
+	private final int policy;
+
+	private final LedFrame[] buffer;
+
+	private LedFrame inFlight;
+
+	private boolean sending;
+
+	private int head;
+
+	private int count;
+
+	private FrameSubscription subscription;
+
+	private boolean done;
+
+	private Throwable error;
+
+	private long framesReceived;
+
+	private long framesDropped;
+
+	/**
+	 * Create sink with room for one frame besides the one in flight
+	 *
+	 * @param blinkStick	Device to send frames to
+	 * @param channel	Channel (0 - R, 1 - G, 2 - B), frames are sent to this channel regardless of their own
+	 * @param policy	{@link #DROP_OLDEST}, {@link #DROP_NEWEST} or {@link #CONFLATE}
+	 */
+	public FrameSink(BlinkStick blinkStick, int channel, int policy)
+	{
+		this(blinkStick, channel, 1, policy);
+	}
+
+	/**
+	 * Create sink
+	 *
+	 * @param blinkStick	Device to send frames to
+	 * @param channel	Channel (0 - R, 1 - G, 2 - B), frames are sent to this channel regardless of their own
+	 * @param capacity	Number of frames buffered besides the one in flight
+	 * @param policy	{@link #DROP_OLDEST}, {@link #DROP_NEWEST} or {@link #CONFLATE}
+	 */
+	public FrameSink(BlinkStick blinkStick, int channel, int capacity, int policy)
+	{
+		if (channel < 0 || channel > 2)
+		{
+			throw new IllegalArgumentException("Invalid channel " + channel);
+		}
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		if (policy < DROP_OLDEST || policy > CONFLATE)
+		{
+			throw new IllegalArgumentException("Invalid overflow policy " + policy);
+		}
+
+		this.writer = blinkStick.getWriter();
+		this.channel = channel;
+		this.policy = policy;
+		this.buffer = new LedFrame[capacity];
+	}
+
+	public void onSubscribe(FrameSubscription subscription)
+	{
+		synchronized (this)
+		{
+			if (this.subscription != null || done)
+			{
+				subscription.cancel();
+				return;
+			}
+
+			this.subscription = subscription;
+		}
+
+		writer.addListener(this);
+		subscription.request(buffer.length + 1);
+	}
+
+	public void onNext(LedFrame frame)
+	{
+		synchronized (this)
+		{
+			if (done)
+			{
+				return;
+			}
+
+			framesReceived++;
+
+			if (!sending)
+			{
+				send(copy(inFlight, frame));
+				return;
+			}
+
+			if (count < buffer.length)
+			{
+				int slot = (head + count) % buffer.length;
+				buffer[slot] = copy(buffer[slot], frame);
+				count++;
+				return;
+			}
+
+			framesDropped++;
+
+			if (policy == DROP_OLDEST)
+			{
+				buffer[head] = copy(buffer[head], frame);
+				head = (head + 1) % buffer.length;
+			}
+			else if (policy == CONFLATE)
+			{
+				int slot = (head + count - 1) % buffer.length;
+				buffer[slot] = copy(buffer[slot], frame);
+			}
+		}
+	}
+
+	public void onError(Throwable error)
+	{
+		synchronized (this)
+		{
+			this.error = error;
+		}
+		finish();
+	}
+
+	public void onComplete()
+	{
+		finish();
+	}
+
+	/**
+	 * Called by the writer after a frame was sent, moves the next buffered frame to the writer and requests a new one
+	 */
+	public void onFrameSent(int channel)
+	{
+		FrameSubscription upstream;
+		boolean finished;
+
+		synchronized (this)
+		{
+			if (channel != this.channel || !sending)
+			{
+				return;
+			}
+
+			if (count > 0)
+			{
+				LedFrame next = buffer[head];
+				buffer[head] = inFlight;
+				head = (head + 1) % buffer.length;
+				count--;
+				send(next);
+			}
+			else
+			{
+				sending = false;
+			}
+
+			upstream = done ? null : subscription;
+			finished = done && !sending;
+		}
+
+		if (upstream != null)
+		{
+			upstream.request(1);
+		}
+		else if (finished)
+		{
+			writer.removeListener(this);
+		}
+	}
+
+	/**
+	 * Cancel the subscription. Buffered frames are still sent.
+	 */
+	public void cancel()
+	{
+		FrameSubscription upstream;
+		synchronized (this)
+		{
+			upstream = done ? null : subscription;
+		}
+
+		if (upstream != null)
+		{
+			upstream.cancel();
+		}
+		finish();
+	}
+
+	/**
+	 * @return true after the producer completed or failed, or the subscription was cancelled
+	 */
+	public synchronized boolean isDone()
+	{
+		return done;
+	}
+
+	/**
+	 * @return Failure reported by the producer, null if none
+	 */
+	public synchronized Throwable getError()
+	{
+		return error;
+	}
+
+	/**
+	 * @return Number of frames delivered by the producer
+	 */
+	public synchronized long getFramesReceived()
+	{
+		return framesReceived;
+	}
+
+	/**
+	 * @return Number of frames discarded by the overflow policy
+	 */
+	public synchronized long getFramesDropped()
+	{
+		return framesDropped;
+	}
+
+	private void finish()
+	{
+		boolean idle;
+		synchronized (this)
+		{
+			done = true;
+			idle = !sending;
+		}
+
+		if (idle)
+		{
+			writer.removeListener(this);
+		}
+	}
+
+	private void send(LedFrame frame)
+	{
+		inFlight = frame;
+		sending = true;
+		writer.submit(frame);
+	}
+
+	/**
+	 * Copy frame into a buffer frame, allocating it when the LED count differs
+	 */
+	private LedFrame copy(LedFrame target, LedFrame frame)
+	{
+		if (target == null || target.getLedCount() != frame.getLedCount())
+		{
+			target = new LedFrame(frame.getLedCount());
+		}
+
+		target.copyFrom(frame);
+		target.setChannel(channel);
+		target.setTimestamp(frame.getTimestamp() > 0 ? frame.getTimestamp() : System.nanoTime());
+		return target;
+	}
+}
@@ -0,0 +1,35 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Consumer of frames, shaped like the Reactive Streams Subscriber. java.util.concurrent.Flow is not
+ * available on the supported Android versions, so producers adapt their own publisher type by
+ * forwarding the four calls.
+ */
+public interface FrameSubscriber {
+
+	/**
+	 * Called once before any other method
+	 *
+	 * @param subscription	Subscription used to request frames
+	 */
+	void onSubscribe(FrameSubscription subscription);
+
+	/**
+	 * Deliver a frame. Called at most as many times as frames were requested.
+	 *
+	 * @param frame	Frame, the subscriber copies it before returning
+	 */
+	void onNext(LedFrame frame);
+
+	/**
+	 * The producer failed, no further calls follow
+	 *
+	 * @param error	Failure
+	 */
+	void onError(Throwable error);
+
+	/**
+	 * The producer finished, no further calls follow
+	 */
+	void onComplete();
+}
@@ -0,0 +1,20 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Link between a frame producer and a {@link FrameSubscriber}, shaped like the Reactive Streams
+ * Subscription so it can be adapted to java.util.concurrent.Flow or RxJava without copying frames.
+ */
+public interface FrameSubscription {
+
+	/**
+	 * Allow the producer to deliver more frames
+	 *
+	 * @param n	Number of additional frames the subscriber can accept, positive
+	 */
+	void request(long n);
+
+	/**
+	 * Stop delivering frames
+	 */
+	void cancel();
+}
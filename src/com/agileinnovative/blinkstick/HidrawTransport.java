@@ -0,0 +1,390 @@
+package com.agileinnovative.blinkstick;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transport which exchanges feature reports through a Linux hidraw device node, so the library can
+ * drive BlinkSticks from headless Linux hosts without the Android USB host API.
+ *
+ * Feature reports need the HIDIOCSFEATURE and HIDIOCGFEATURE ioctls, which plain Java can not issue.
+ * They are delegated to a {@link FeatureIo} binding provided by the application, for example with JNA
+ * or JNI, which is required for device nodes. A write() on a node would send an output report the
+ * device ignores, so only a regular file standing in for the node, for example in tests, can be
+ * opened without a binding. Reports are then written to the file and reading reports is not supported.
+ *
+ * Reports are staged in a reusable direct buffer, so sending does not allocate.
+ */
+public class HidrawTransport implements BlinkStickTransport {
+
+	/**
+	 * Directory listing the hidraw devices in sysfs
+	 */
+	public static final File SYSFS_HIDRAW = new File("/sys/class/hidraw");
+
+	/**
+	 * Directory containing the device nodes
+	 */
+	public static final File DEV = new File("/dev");
+
+	/**
+	 * Binding for the hidraw feature report ioctls
+	 */
+	public interface FeatureIo {
+		/**
+		 * Issue HIDIOCSFEATURE, see {@link HidrawTransport#hidiocsfeature(int)}
+		 *
+		 * @param fd	Open descriptor of the device node
+		 * @param report	Direct buffer with the report starting with report id at position 0
+		 * @param length	Number of bytes to send
+		 * @return Number of bytes sent or negative value on failure
+		 */
+		int setFeature(FileDescriptor fd, ByteBuffer report, int length);
+
+		/**
+		 * Issue HIDIOCGFEATURE, see {@link HidrawTransport#hidiocgfeature(int)}
+		 *
+		 * @param fd	Open descriptor of the device node
+		 * @param report	Direct buffer with the report id at position 0, receives the report
+		 * @param length	Number of bytes to read
+		 * @return Number of bytes read or negative value on failure
+		 */
+		int getFeature(FileDescriptor fd, ByteBuffer report, int length);
+	}
+
+	private static final int IOC_READ_WRITE = 3;
+
+	private final File node;
+
+	private final File sysfsDir;
+
+	private final FeatureIo featureIo;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(ReportTrace.MAX_REPORT_SIZE);
+
+	/**
+	 * Open regular file standing in for a hidraw node, reports sent are written to the file
+	 *
+	 * @param node	Regular file, named like the device node it stands in for, for example hidraw0
+	 * @throws IOException if the file can not be opened
+	 * @throws IllegalArgumentException if the node is not a regular file
+	 */
+	public HidrawTransport(File node) throws IOException
+	{
+		this(node, new File(SYSFS_HIDRAW, node.getName()), null);
+	}
+
+	/**
+	 * Open hidraw node
+	 *
+	 * @param node	Device node, for example /dev/hidraw0
+	 * @param sysfsDir	Sysfs directory of the node used to read serial and names, for example /sys/class/hidraw/hidraw0
+	 * @param featureIo	Binding for the feature report ioctls, null only for a regular file standing in for the node
+	 * @throws IOException if the node can not be opened
+	 * @throws IllegalArgumentException if no binding is given for a device node
+	 */
+	public HidrawTransport(File node, File sysfsDir, FeatureIo featureIo) throws IOException
+	{
+		if (featureIo == null && !node.isFile())
+		{
+			throw new IllegalArgumentException("Feature reports on " + node + " need a FeatureIo binding");
+		}
+
+		this.node = node;
+		this.sysfsDir = sysfsDir;
+		this.featureIo = featureIo;
+		this.file = new RandomAccessFile(node, "rw");
+		this.channel = file.getChannel();
+	}
+
+	/**
+	 * @return Device node of the transport
+	 */
+	public File getNode()
+	{
+		return node;
+	}
+
+	public synchronized int sendFeatureReport(byte[] report, int length)
+	{
+		if (length > buffer.capacity())
+		{
+			return -1;
+		}
+
+		buffer.clear();
+		buffer.put(report, 0, length);
+		buffer.flip();
+
+		try
+		{
+			if (featureIo != null)
+			{
+				return featureIo.setFeature(file.getFD(), buffer, length);
+			}
+
+			// Regular file standing in for the node
+			int written = 0;
+			while (buffer.hasRemaining())
+			{
+				written += channel.write(buffer);
+			}
+			return written;
+		}
+		catch (IOException e)
+		{
+			return -1;
+		}
+	}
+
+	public synchronized int getFeatureReport(byte[] report, int length)
+	{
+		if (featureIo == null || length > buffer.capacity())
+		{
+			return -1;
+		}
+
+		buffer.clear();
+		buffer.put(report, 0, length);
+		buffer.flip();
+
+		try
+		{
+			int read = featureIo.getFeature(file.getFD(), buffer, length);
+			if (read > 0)
+			{
+				buffer.position(0);
+				buffer.get(report, 0, Math.min(read, length));
+			}
+			return read;
+		}
+		catch (IOException e)
+		{
+			return -1;
+		}
+	}
+
+	public String getSerial()
+	{
+		return readUevent(sysfsDir, "HID_UNIQ");
+	}
+
+	public String getManufacturer()
+	{
+		return readAttribute("manufacturer");
+	}
+
+	public String getProduct()
+	{
+		String product = readAttribute("product");
+		if (product.length() == 0)
+		{
+			product = readUevent(sysfsDir, "HID_NAME");
+		}
+		return product;
+	}
+
+	public void close()
+	{
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Request number of the HIDIOCSFEATURE ioctl for bindings
+	 *
+	 * @param length	Report length including report id
+	 * @return ioctl request
+	 */
+	public static int hidiocsfeature(int length)
+	{
+		return ioc(0x06, length);
+	}
+
+	/**
+	 * Request number of the HIDIOCGFEATURE ioctl for bindings
+	 *
+	 * @param length	Report length including report id
+	 * @return ioctl request
+	 */
+	public static int hidiocgfeature(int length)
+	{
+		return ioc(0x07, length);
+	}
+
+	/**
+	 * Find BlinkStick hidraw nodes
+	 *
+	 * @return Device nodes of connected BlinkSticks
+	 */
+	public static File[] findNodes()
+	{
+		return findNodes(SYSFS_HIDRAW, DEV);
+	}
+
+	/**
+	 * Find BlinkStick hidraw nodes below custom roots
+	 *
+	 * @param sysfsRoot	Directory with one directory per hidraw device containing device/uevent
+	 * @param devRoot	Directory with the device nodes
+	 * @return Device nodes of connected BlinkSticks
+	 */
+	public static File[] findNodes(File sysfsRoot, File devRoot)
+	{
+		List<File> nodes = new ArrayList<File>();
+
+		File[] entries = sysfsRoot.listFiles();
+		if (entries != null)
+		{
+			for (int i = 0; i < entries.length; i++)
+			{
+				if (isBlinkStick(readUevent(entries[i], "HID_ID")))
+				{
+					nodes.add(new File(devRoot, entries[i].getName()));
+				}
+			}
+		}
+
+		return nodes.toArray(new File[0]);
+	}
+
+	/**
+	 * Open all connected BlinkSticks. Nodes which can not be opened, usually for lack of permission, are left out.
+	 *
+	 * @param featureIo	Binding for the feature report ioctls
+	 * @return Open BlinkSticks
+	 */
+	public static BlinkStick[] openAll(FeatureIo featureIo)
+	{
+		if (featureIo == null)
+		{
+			throw new IllegalArgumentException("Device nodes need a FeatureIo binding");
+		}
+
+		File[] nodes = findNodes();
+		List<BlinkStick> result = new ArrayList<BlinkStick>();
+
+		for (int i = 0; i < nodes.length; i++)
+		{
+			try
+			{
+				BlinkStick blinkStick = new BlinkStick();
+				blinkStick.setTransport(new HidrawTransport(nodes[i], new File(SYSFS_HIDRAW, nodes[i].getName()), featureIo));
+				result.add(blinkStick);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		return result.toArray(new BlinkStick[0]);
+	}
+
+	/**
+	 * Check HID_ID value in the form bus:vendor:product, for example 0003:000020A0:000041E5
+	 */
+	private static boolean isBlinkStick(String hidId)
+	{
+		String[] parts = hidId.split(":");
+		if (parts.length != 3)
+		{
+			return false;
+		}
+
+		try
+		{
+			return Long.parseLong(parts[1], 16) == BlinkStickFinder.VENDOR_ID
+					&& Long.parseLong(parts[2], 16) == BlinkStickFinder.PRODUCT_ID;
+		}
+		catch (NumberFormatException e)
+		{
+			return false;
+		}
+	}
+
+	private static int ioc(int nr, int length)
+	{
+		return (IOC_READ_WRITE << 30) | (length << 16) | ('H' << 8) | nr;
+	}
+
+	/**
+	 * Read attribute of the USB device, two levels above the HID device
+	 */
+	private String readAttribute(String name)
+	{
+		return readText(new File(sysfsDir, "device/../../" + name)).trim();
+	}
+
+	/**
+	 * Read value from device/uevent of a hidraw sysfs directory
+	 *
+	 * @return Value or empty string if not found
+	 */
+	private static String readUevent(File dir, String key)
+	{
+		String[] lines = readText(new File(dir, "device/uevent")).split("\n");
+		String prefix = key + "=";
+
+		for (int i = 0; i < lines.length; i++)
+		{
+			if (lines[i].startsWith(prefix))
+			{
+				return lines[i].substring(prefix.length()).trim();
+			}
+		}
+
+		return "";
+	}
+
+	/**
+	 * Read small text file
+	 *
+	 * @return Content or empty string if the file can not be read
+	 */
+	private static String readText(File file)
+	{
+		StringBuilder result = new StringBuilder();
+		byte[] data = new byte[256];
+
+		try
+		{
+			FileInputStream in = new FileInputStream(file);
+			try
+			{
+				int read;
+				while ((read = in.read(data)) > 0)
+				{
+					for (int i = 0; i < read; i++)
+					{
+						result.append((char) (data[i] & 0xFF));
+					}
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			return "";
+		}
+
+		return result.toString();
+	}
+}
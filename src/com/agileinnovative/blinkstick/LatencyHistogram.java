@@ -0,0 +1,156 @@
+package com.agileinnovative.blinkstick;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations in nanoseconds with power of two buckets.
+ *
+ * Bucket n counts values in the range [2^n, 2^(n+1)) with bucket 0 also holding 0 and 1, which is
+ * precise enough to tell microseconds from milliseconds while recording costs a few atomic increments.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of buckets, enough for any positive long value
+	 */
+	public static final int BUCKET_COUNT = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong total = new AtomicLong();
+
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Record a duration
+	 *
+	 * @param nanos	Duration in nanoseconds, negative values are recorded as 0
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+		{
+			nanos = 0;
+		}
+
+		buckets.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+
+		long current;
+		while (nanos < (current = min.get()) && !min.compareAndSet(current, nanos))
+		{
+		}
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos))
+		{
+		}
+	}
+
+	/**
+	 * @return Number of recorded values
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @return Smallest recorded value in nanoseconds or 0 if nothing was recorded
+	 */
+	public long getMin()
+	{
+		return count.get() > 0 ? min.get() : 0;
+	}
+
+	/**
+	 * @return Largest recorded value in nanoseconds or 0 if nothing was recorded
+	 */
+	public long getMax()
+	{
+		return count.get() > 0 ? max.get() : 0;
+	}
+
+	/**
+	 * @return Average of recorded values in nanoseconds or 0 if nothing was recorded
+	 */
+	public long getMean()
+	{
+		long n = count.get();
+		return n > 0 ? total.get() / n : 0;
+	}
+
+	/**
+	 * Get the upper bound of the bucket which contains the percentile
+	 *
+	 * @param percentile	Percentile in the range of [0..100]
+	 * @return Upper bound in nanoseconds, never larger than the largest recorded value
+	 */
+	public long getPercentile(double percentile)
+	{
+		long n = count.get();
+		if (n == 0)
+		{
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(n * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			seen += buckets.get(i);
+			if (seen >= rank && seen > 0)
+			{
+				long upper = i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+				return Math.min(upper, getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Get number of values recorded in a bucket
+	 *
+	 * @param bucket	Bucket index, bucket n holds values in the range [2^n, 2^(n+1))
+	 * @return Number of values in the bucket
+	 */
+	public long getBucketCount(int bucket)
+	{
+		return buckets.get(bucket);
+	}
+
+	/**
+	 * Clear all recorded values
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(Long.MIN_VALUE);
+	}
+
+	private static int bucketOf(long nanos)
+	{
+		return nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "count=" + getCount()
+				+ " min=" + getMin() / 1000 + "us"
+				+ " mean=" + getMean() / 1000 + "us"
+				+ " p99=" + getPercentile(99) / 1000 + "us"
+				+ " max=" + getMax() / 1000 + "us";
+	}
+}
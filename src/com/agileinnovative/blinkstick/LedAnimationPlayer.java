@@ -0,0 +1,272 @@
+package com.agileinnovative.blinkstick;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Player for animation files created with {@link LedAnimationWriter}.
+ *
+ * The file is memory mapped and frames are decoded one at a time directly into the report buffer
+ * of a {@link LedFrame} for each channel, so playback starts immediately and uses the same amount of
+ * memory regardless of the length of the animation.
+ */
+public class LedAnimationPlayer implements Closeable {
+
+	private MappedByteBuffer buffer;
+
+	private final int ledCount;
+
+	private final int frameCount;
+
+	private final LedFrame[] frames = new LedFrame[3];
+
+	private int frameIndex;
+
+	private int delay;
+
+	/**
+	 * Open animation file for playback
+	 *
+	 * @param file	Animation file to play
+	 * @throws IOException if the file can not be read or is not a valid animation file
+	 */
+	public LedAnimationPlayer(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally
+		{
+			// Mapping stays valid after the file is closed
+			raf.close();
+		}
+
+		if (buffer.remaining() < LedAnimationWriter.HEADER_SIZE || buffer.getInt(0) != LedAnimationWriter.MAGIC)
+		{
+			throw new IOException("Not a BlinkStick animation file");
+		}
+
+		int version = buffer.get(4) & 0xFF;
+		if (version != LedAnimationWriter.VERSION)
+		{
+			throw new IOException("Unsupported animation file version " + version);
+		}
+
+		ledCount = buffer.getShort(6) & 0xFFFF;
+		frameCount = buffer.getInt(LedAnimationWriter.FRAME_COUNT_OFFSET);
+
+		if (ledCount < 1 || ledCount > LedFrame.MAX_LEDS)
+		{
+			throw new IOException("Invalid LED count " + ledCount);
+		}
+
+		rewind();
+	}
+
+	/**
+	 * @return Number of LEDs in every frame
+	 */
+	public int getLedCount()
+	{
+		return ledCount;
+	}
+
+	/**
+	 * @return Number of frames in the animation
+	 */
+	public int getFrameCount()
+	{
+		return frameCount;
+	}
+
+	/**
+	 * @return Index of the next frame to be decoded
+	 */
+	public int getFrameIndex()
+	{
+		return frameIndex;
+	}
+
+	/**
+	 * @return Delay in milliseconds of the last decoded frame
+	 */
+	public int getDelay()
+	{
+		return delay;
+	}
+
+	/**
+	 * Restart playback from the first frame
+	 */
+	public void rewind()
+	{
+		buffer.position(LedAnimationWriter.HEADER_SIZE);
+		frameIndex = 0;
+		delay = 0;
+
+		for (int i = 0; i < frames.length; i++)
+		{
+			if (frames[i] != null)
+			{
+				frames[i].clear();
+			}
+		}
+	}
+
+	/**
+	 * Decode the next frame. The returned frame is reused for all frames of the same channel.
+	 *
+	 * @return Decoded frame or null at the end of the animation
+	 * @throws IOException if the frame data is corrupt
+	 */
+	public LedFrame nextFrame() throws IOException
+	{
+		if (frameIndex >= frameCount || buffer.remaining() < LedAnimationWriter.FRAME_HEADER_SIZE)
+		{
+			return null;
+		}
+
+		int frameDelay = buffer.getShort() & 0xFFFF;
+		int channel = buffer.get() & 0xFF;
+		int encoding = buffer.get() & 0xFF;
+		int length = buffer.getShort() & 0xFFFF;
+
+		if (channel > 2 || buffer.remaining() < length)
+		{
+			throw new IOException("Corrupt frame " + frameIndex);
+		}
+
+		LedFrame frame = frames[channel];
+		if (frame == null)
+		{
+			frame = new LedFrame(ledCount);
+			frame.setChannel(channel);
+			frames[channel] = frame;
+		}
+
+		byte[] report = frame.getReport();
+		int end = buffer.position() + length;
+
+		switch (encoding)
+		{
+		case LedAnimationWriter.ENCODING_RAW:
+			if (length != ledCount * 3)
+			{
+				throw new IOException("Corrupt frame " + frameIndex);
+			}
+			buffer.get(report, LedFrame.DATA_OFFSET, length);
+			break;
+
+		case LedAnimationWriter.ENCODING_DELTA:
+			while (buffer.position() < end)
+			{
+				if (buffer.position() + 2 > end)
+				{
+					throw new IOException("Corrupt frame " + frameIndex);
+				}
+
+				int start = buffer.get() & 0xFF;
+				int count = buffer.get() & 0xFF;
+				if (start + count > ledCount || buffer.position() + count * 3 > end)
+				{
+					throw new IOException("Corrupt frame " + frameIndex);
+				}
+				buffer.get(report, LedFrame.DATA_OFFSET + start * 3, count * 3);
+			}
+			break;
+
+		case LedAnimationWriter.ENCODING_RLE:
+			int led = 0;
+			while (buffer.position() < end)
+			{
+				if (buffer.position() + 4 > end)
+				{
+					throw new IOException("Corrupt frame " + frameIndex);
+				}
+
+				int run = buffer.get() & 0xFF;
+				byte g = buffer.get();
+				byte r = buffer.get();
+				byte b = buffer.get();
+				if (led + run > ledCount)
+				{
+					throw new IOException("Corrupt frame " + frameIndex);
+				}
+
+				for (int offset = LedFrame.DATA_OFFSET + led * 3; run > 0; run--, led++)
+				{
+					report[offset++] = g;
+					report[offset++] = r;
+					report[offset++] = b;
+				}
+			}
+			break;
+
+		default:
+			throw new IOException("Unknown frame encoding " + encoding);
+		}
+
+		buffer.position(end);
+		delay = frameDelay;
+		frameIndex++;
+
+		return frame;
+	}
+
+	/**
+	 * Play the animation to BlinkStick on the calling thread. Frame delays are measured from the
+	 * start of playback so slow transfers do not make the animation drift.
+	 *
+	 * @param blinkStick	Device to send frames to
+	 * @param loop	Restart from the first frame when the animation ends
+	 * @throws IOException if the frame data is corrupt
+	 * @throws InterruptedException if the thread was interrupted during playback
+	 */
+	public void play(BlinkStick blinkStick, boolean loop) throws IOException, InterruptedException
+	{
+		long deadline = System.nanoTime();
+
+		while (true)
+		{
+			LedFrame frame = nextFrame();
+			if (frame == null)
+			{
+				if (!loop || frameCount == 0)
+				{
+					return;
+				}
+
+				rewind();
+				continue;
+			}
+
+			blinkStick.setColors(frame);
+
+			deadline += delay * 1000000L;
+			long wait = deadline - System.nanoTime();
+			if (wait > 0)
+			{
+				Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+			}
+			else if (Thread.interrupted())
+			{
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	/**
+	 * Release the mapped file. The player can not be used afterwards.
+	 */
+	public void close()
+	{
+		buffer = null;
+	}
+}
@@ -0,0 +1,302 @@
+package com.agileinnovative.blinkstick;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Encoder for compact binary LED animation files which can be played with {@link LedAnimationPlayer}.
+ *
+ * File layout, all values big endian:
+ * <pre>
+ * header:  "BSAN", u8 version, u8 flags, u16 LED count, u32 frame count, u32 reserved
+ * frame:   u16 delay in ms, u8 channel, u8 encoding, u16 payload length, payload
+ * </pre>
+ * Payload is stored in device order [g, r, b] and encoded as one of:
+ * <ul>
+ * <li>{@link #ENCODING_RAW} - color data for all LEDs</li>
+ * <li>{@link #ENCODING_DELTA} - segments [u8 first LED, u8 LED count, colors] which changed since
+ * the previous frame of the same channel</li>
+ * <li>{@link #ENCODING_RLE} - runs [u8 LED count, g, r, b] covering all LEDs</li>
+ * </ul>
+ * The writer picks the smallest encoding allowed by the flags for every frame.
+ */
+public class LedAnimationWriter implements Closeable {
+
+	static final int MAGIC = 0x4253414E;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 16;
+
+	static final int FRAME_HEADER_SIZE = 6;
+
+	static final int FRAME_COUNT_OFFSET = 8;
+
+	/**
+	 * Allow delta encoding against the previous frame of the same channel
+	 */
+	public static final int FLAG_DELTA = 1;
+
+	/**
+	 * Allow run length encoding
+	 */
+	public static final int FLAG_RLE = 2;
+
+	/**
+	 * Frame payload contains colors of all LEDs
+	 */
+	public static final int ENCODING_RAW = 0;
+
+	/**
+	 * Frame payload contains changed LED segments
+	 */
+	public static final int ENCODING_DELTA = 1;
+
+	/**
+	 * Frame payload contains color runs
+	 */
+	public static final int ENCODING_RLE = 2;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final int ledCount;
+
+	private final int flags;
+
+	private final ByteBuffer output = ByteBuffer.allocate(64 * 1024);
+
+	private final byte[][] previous = new byte[3][];
+
+	private final byte[] delta;
+
+	private final byte[] rle;
+
+	private int frameCount;
+
+	/**
+	 * Create new animation file, overwriting existing one
+	 *
+	 * @param file	File to write to
+	 * @param ledCount	Number of LEDs in every frame 1..64
+	 * @param flags	Combination of {@link #FLAG_DELTA} and {@link #FLAG_RLE}, 0 for raw frames only
+	 * @throws IOException if the file can not be written
+	 */
+	public LedAnimationWriter(File file, int ledCount, int flags) throws IOException
+	{
+		if (ledCount < 1 || ledCount > LedFrame.MAX_LEDS)
+		{
+			throw new IllegalArgumentException("LED count must be in the range of [1.." + LedFrame.MAX_LEDS + "]");
+		}
+
+		this.ledCount = ledCount;
+		this.flags = flags;
+
+		// Worst cases: two header bytes for every other LED plus all colors for delta, no repeated colors for RLE
+		this.delta = new byte[ledCount * 4 + 2];
+		this.rle = new byte[ledCount * 4];
+
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(0);
+		this.channel = this.file.getChannel();
+
+		output.putInt(MAGIC);
+		output.put((byte) VERSION);
+		output.put((byte) flags);
+		output.putShort((short) ledCount);
+		output.putInt(0);
+		output.putInt(0);
+	}
+
+	/**
+	 * Append a frame to the animation
+	 *
+	 * @param frame	Frame to append, must have the LED count of the animation
+	 * @param delayMs	Time in milliseconds to show the frame before the next one 0..65535
+	 * @throws IOException if the file can not be written
+	 */
+	public void addFrame(LedFrame frame, int delayMs) throws IOException
+	{
+		if (frame.getLedCount() != ledCount)
+		{
+			throw new IllegalArgumentException("LED count does not match");
+		}
+
+		if (delayMs < 0 || delayMs > 0xFFFF)
+		{
+			throw new IllegalArgumentException("Delay must be in the range of [0..65535]");
+		}
+
+		int frameChannel = frame.getChannel();
+		if (frameChannel < 0 || frameChannel > 2)
+		{
+			throw new IllegalArgumentException("Channel must be in the range of [0..2]");
+		}
+
+		byte[] data = frame.getReport();
+		int size = ledCount * 3;
+
+		int encoding = ENCODING_RAW;
+		byte[] payload = data;
+		int payloadOffset = LedFrame.DATA_OFFSET;
+		int payloadLength = size;
+
+		if ((flags & FLAG_DELTA) != 0 && previous[frameChannel] != null)
+		{
+			int length = encodeDelta(data, previous[frameChannel]);
+			if (length < payloadLength)
+			{
+				encoding = ENCODING_DELTA;
+				payload = delta;
+				payloadOffset = 0;
+				payloadLength = length;
+			}
+		}
+
+		if ((flags & FLAG_RLE) != 0)
+		{
+			int length = encodeRle(data);
+			if (length < payloadLength)
+			{
+				encoding = ENCODING_RLE;
+				payload = rle;
+				payloadOffset = 0;
+				payloadLength = length;
+			}
+		}
+
+		if (output.remaining() < FRAME_HEADER_SIZE + payloadLength)
+		{
+			flush();
+		}
+
+		output.putShort((short) delayMs);
+		output.put((byte) frameChannel);
+		output.put((byte) encoding);
+		output.putShort((short) payloadLength);
+		output.put(payload, payloadOffset, payloadLength);
+
+		if ((flags & FLAG_DELTA) != 0)
+		{
+			if (previous[frameChannel] == null)
+			{
+				previous[frameChannel] = new byte[size];
+			}
+			System.arraycopy(data, LedFrame.DATA_OFFSET, previous[frameChannel], 0, size);
+		}
+
+		frameCount++;
+	}
+
+	/**
+	 * Get the number of frames written so far
+	 *
+	 * @return Number of frames
+	 */
+	public int getFrameCount()
+	{
+		return frameCount;
+	}
+
+	/**
+	 * Write the remaining data and frame count, then close the file
+	 *
+	 * @throws IOException if the file can not be written
+	 */
+	public void close() throws IOException
+	{
+		try
+		{
+			flush();
+
+			ByteBuffer count = ByteBuffer.allocate(4);
+			count.putInt(frameCount);
+			count.flip();
+			channel.write(count, FRAME_COUNT_OFFSET);
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	private void flush() throws IOException
+	{
+		output.flip();
+		while (output.hasRemaining())
+		{
+			channel.write(output);
+		}
+		output.clear();
+	}
+
+	private int encodeDelta(byte[] data, byte[] last)
+	{
+		int length = 0;
+		int led = 0;
+
+		while (led < ledCount)
+		{
+			if (sameLed(data, last, led))
+			{
+				led++;
+				continue;
+			}
+
+			int start = led;
+			while (led < ledCount && led - start < 255 && !sameLed(data, last, led))
+			{
+				led++;
+			}
+
+			int count = led - start;
+			delta[length++] = (byte) start;
+			delta[length++] = (byte) count;
+			System.arraycopy(data, LedFrame.DATA_OFFSET + start * 3, delta, length, count * 3);
+			length += count * 3;
+		}
+
+		return length;
+	}
+
+	private boolean sameLed(byte[] data, byte[] last, int led)
+	{
+		int offset = LedFrame.DATA_OFFSET + led * 3;
+		int lastOffset = led * 3;
+		return data[offset] == last[lastOffset]
+				&& data[offset + 1] == last[lastOffset + 1]
+				&& data[offset + 2] == last[lastOffset + 2];
+	}
+
+	private int encodeRle(byte[] data)
+	{
+		int length = 0;
+		int led = 0;
+
+		while (led < ledCount)
+		{
+			int offset = LedFrame.DATA_OFFSET + led * 3;
+			int run = 1;
+			while (led + run < ledCount && run < 255
+					&& data[offset + run * 3] == data[offset]
+					&& data[offset + run * 3 + 1] == data[offset + 1]
+					&& data[offset + run * 3 + 2] == data[offset + 2])
+			{
+				run++;
+			}
+
+			rle[length++] = (byte) run;
+			rle[length++] = data[offset];
+			rle[length++] = data[offset + 1];
+			rle[length++] = data[offset + 2];
+			led += run;
+		}
+
+		return length;
+	}
+}
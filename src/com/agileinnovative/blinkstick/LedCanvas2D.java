@@ -0,0 +1,468 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Two dimensional drawing surface for LED matrices such as BlinkStick Square or grids built from strips.
+ *
+ * Drawing happens on an int color buffer in x/y coordinates. The physical wiring is described by a
+ * {@link Layout}, which is compiled once into a table of byte offsets, so {@link #render()} copies
+ * the buffer into the GRB report with one table lookup per pixel and no per frame coordinate math.
+ */
+public class LedCanvas2D {
+
+	/**
+	 * Mapping from x/y coordinates to LED indexes
+	 */
+	public static class Layout {
+		private final int width;
+		private final int height;
+		private final int[] map;
+
+		private Layout(int width, int height, int[] map)
+		{
+			this.width = width;
+			this.height = height;
+			this.map = map;
+		}
+
+		/**
+		 * LEDs wired row by row, every row from left to right
+		 *
+		 * @param width	Number of columns
+		 * @param height	Number of rows
+		 * @return Layout
+		 */
+		public static Layout rowMajor(int width, int height)
+		{
+			int[] map = new int[width * height];
+			for (int i = 0; i < map.length; i++)
+			{
+				map[i] = i;
+			}
+			return new Layout(width, height, map);
+		}
+
+		/**
+		 * LEDs wired row by row in alternating direction, the first row from left to right
+		 *
+		 * @param width	Number of columns
+		 * @param height	Number of rows
+		 * @return Layout
+		 */
+		public static Layout serpentine(int width, int height)
+		{
+			int[] map = new int[width * height];
+			for (int y = 0; y < height; y++)
+			{
+				for (int x = 0; x < width; x++)
+				{
+					map[y * width + x] = y * width + ((y & 1) == 0 ? x : width - 1 - x);
+				}
+			}
+			return new Layout(width, height, map);
+		}
+
+		/**
+		 * Arbitrary wiring
+		 *
+		 * @param width	Number of columns
+		 * @param height	Number of rows
+		 * @param map	LED index for every pixel in row major order, -1 for pixels without LED
+		 * @return Layout
+		 */
+		public static Layout custom(int width, int height, int[] map)
+		{
+			if (map.length != width * height)
+			{
+				throw new IllegalArgumentException("Map of " + map.length + " entries does not match " + width + "x" + height);
+			}
+			return new Layout(width, height, map.clone());
+		}
+
+		/**
+		 * Layout of the same LEDs mounted rotated clockwise. Width and height swap for odd quarter turns.
+		 *
+		 * @param quarterTurns	Number of 90 degree clockwise turns
+		 * @return Rotated layout
+		 */
+		public Layout rotate(int quarterTurns)
+		{
+			Layout result = this;
+			for (int turn = ((quarterTurns % 4) + 4) % 4; turn > 0; turn--)
+			{
+				int w = result.height;
+				int h = result.width;
+				int[] map = new int[w * h];
+				for (int y = 0; y < h; y++)
+				{
+					for (int x = 0; x < w; x++)
+					{
+						map[y * w + x] = result.map[(result.height - 1 - x) * result.width + y];
+					}
+				}
+				result = new Layout(w, h, map);
+			}
+			return result;
+		}
+
+		/**
+		 * Layout mirrored left to right
+		 *
+		 * @return Mirrored layout
+		 */
+		public Layout flipHorizontal()
+		{
+			int[] flipped = new int[map.length];
+			for (int y = 0; y < height; y++)
+			{
+				for (int x = 0; x < width; x++)
+				{
+					flipped[y * width + x] = map[y * width + width - 1 - x];
+				}
+			}
+			return new Layout(width, height, flipped);
+		}
+
+		/**
+		 * @return Number of columns
+		 */
+		public int getWidth()
+		{
+			return width;
+		}
+
+		/**
+		 * @return Number of rows
+		 */
+		public int getHeight()
+		{
+			return height;
+		}
+
+		/**
+		 * @return Number of LEDs addressed, highest LED index plus one
+		 */
+		public int getLedCount()
+		{
+			int max = -1;
+			for (int i = 0; i < map.length; i++)
+			{
+				max = Math.max(max, map[i]);
+			}
+			return max + 1;
+		}
+	}
+
+	private final int width;
+
+	private final int height;
+
+	private final int ledCount;
+
+	private final int[] pixels;
+
+	/**
+	 * Byte offset of every pixel relative to the first LED, -1 for pixels without LED
+	 */
+	private final int[] offsets;
+
+	private LedFrame frame;
+
+	/**
+	 * Create canvas and compile the layout
+	 *
+	 * @param layout	Wiring of the LEDs
+	 */
+	public LedCanvas2D(Layout layout)
+	{
+		this.width = layout.width;
+		this.height = layout.height;
+		this.ledCount = layout.getLedCount();
+		this.pixels = new int[width * height];
+		this.offsets = new int[width * height];
+
+		for (int i = 0; i < offsets.length; i++)
+		{
+			offsets[i] = layout.map[i] >= 0 ? layout.map[i] * 3 : -1;
+		}
+	}
+
+	/**
+	 * @return Number of columns
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * @return Number of rows
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * @return Number of LEDs addressed by the layout
+	 */
+	public int getLedCount()
+	{
+		return ledCount;
+	}
+
+	/**
+	 * Pixel buffer in row major order, colors as int with alpha ignored. Changes are shown with the next render.
+	 *
+	 * @return Pixel buffer
+	 */
+	public int[] getPixels()
+	{
+		return pixels;
+	}
+
+	/**
+	 * Set the color of a pixel, coordinates outside of the canvas are ignored
+	 *
+	 * @param x	Column
+	 * @param y	Row
+	 * @param color	color as int, alpha is ignored
+	 */
+	public void setPixel(int x, int y, int color)
+	{
+		if (x >= 0 && y >= 0 && x < width && y < height)
+		{
+			pixels[y * width + x] = color;
+		}
+	}
+
+	/**
+	 * Get the color of a pixel
+	 *
+	 * @param x	Column
+	 * @param y	Row
+	 * @return color as int
+	 */
+	public int getPixel(int x, int y)
+	{
+		return pixels[y * width + x];
+	}
+
+	/**
+	 * Set all pixels to a color
+	 *
+	 * @param color	color as int, alpha is ignored
+	 */
+	public void fill(int color)
+	{
+		for (int i = 0; i < pixels.length; i++)
+		{
+			pixels[i] = color;
+		}
+	}
+
+	/**
+	 * Set all pixels to black
+	 */
+	public void clear()
+	{
+		fill(0);
+	}
+
+	/**
+	 * Fill a rectangle, clipped to the canvas
+	 *
+	 * @param x	Left column
+	 * @param y	Top row
+	 * @param w	Width
+	 * @param h	Height
+	 * @param color	color as int, alpha is ignored
+	 */
+	public void fillRect(int x, int y, int w, int h, int color)
+	{
+		int x0 = Math.max(0, x);
+		int y0 = Math.max(0, y);
+		int x1 = Math.min(width, x + w);
+		int y1 = Math.min(height, y + h);
+
+		for (int row = y0; row < y1; row++)
+		{
+			int base = row * width;
+			for (int col = x0; col < x1; col++)
+			{
+				pixels[base + col] = color;
+			}
+		}
+	}
+
+	/**
+	 * Draw a line including both end points, clipped to the canvas
+	 *
+	 * @param x0	Start column
+	 * @param y0	Start row
+	 * @param x1	End column
+	 * @param y1	End row
+	 * @param color	color as int, alpha is ignored
+	 */
+	public void line(int x0, int y0, int x1, int y1, int color)
+	{
+		int dx = Math.abs(x1 - x0);
+		int dy = -Math.abs(y1 - y0);
+		int sx = x0 < x1 ? 1 : -1;
+		int sy = y0 < y1 ? 1 : -1;
+		int error = dx + dy;
+
+		while (true)
+		{
+			setPixel(x0, y0, color);
+			if (x0 == x1 && y0 == y1)
+			{
+				break;
+			}
+
+			int e2 = 2 * error;
+			if (e2 >= dy)
+			{
+				error += dy;
+				x0 += sx;
+			}
+			if (e2 <= dx)
+			{
+				error += dx;
+				y0 += sy;
+			}
+		}
+	}
+
+	/**
+	 * Move the content, pixels moved in from outside get the fill color
+	 *
+	 * @param dx	Columns to move right, negative to move left
+	 * @param dy	Rows to move down, negative to move up
+	 * @param color	Color of uncovered pixels
+	 */
+	public void scroll(int dx, int dy, int color)
+	{
+		if (Math.abs(dx) >= width || Math.abs(dy) >= height)
+		{
+			fill(color);
+			return;
+		}
+
+		int rowLength = width - Math.abs(dx);
+		int from = dx < 0 ? -dx : 0;
+		int to = dx > 0 ? dx : 0;
+
+		// Walk rows against the direction of movement so no source row is overwritten before it is read
+		for (int i = 0; i < height; i++)
+		{
+			int y = dy > 0 ? height - 1 - i : i;
+			int source = y - dy;
+			int base = y * width;
+
+			if (source < 0 || source >= height)
+			{
+				for (int x = 0; x < width; x++)
+				{
+					pixels[base + x] = color;
+				}
+				continue;
+			}
+
+			System.arraycopy(pixels, source * width + from, pixels, base + to, rowLength);
+
+			for (int x = 0; x < to; x++)
+			{
+				pixels[base + x] = color;
+			}
+			for (int x = to + rowLength; x < width; x++)
+			{
+				pixels[base + x] = color;
+			}
+		}
+	}
+
+	/**
+	 * Draw a sprite, clipped to the canvas. Sprite pixels with alpha 0 are transparent.
+	 *
+	 * @param sprite	Sprite colors in row major order with alpha, for example from Bitmap.getPixels
+	 * @param spriteWidth	Sprite width
+	 * @param spriteHeight	Sprite height
+	 * @param x	Column of the left edge of the sprite
+	 * @param y	Row of the top edge of the sprite
+	 */
+	public void blit(int[] sprite, int spriteWidth, int spriteHeight, int x, int y)
+	{
+		int x0 = Math.max(0, x);
+		int y0 = Math.max(0, y);
+		int x1 = Math.min(width, x + spriteWidth);
+		int y1 = Math.min(height, y + spriteHeight);
+
+		for (int row = y0; row < y1; row++)
+		{
+			int source = (row - y) * spriteWidth - x;
+			int base = row * width;
+			for (int col = x0; col < x1; col++)
+			{
+				int c = sprite[source + col];
+				if ((c >>> 24) != 0)
+				{
+					pixels[base + col] = c;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the pixels into a GRB buffer through the compiled layout
+	 *
+	 * @param grb	Buffer in GRB byte order, for example {@link VirtualCanvas#getData()}
+	 * @param offset	Byte offset of the first LED in the buffer
+	 */
+	public void render(byte[] grb, int offset)
+	{
+		for (int i = 0; i < pixels.length; i++)
+		{
+			int o = offsets[i];
+			if (o < 0)
+			{
+				continue;
+			}
+
+			int c = pixels[i];
+			o += offset;
+			grb[o] = (byte) (c >> 8);
+			grb[o + 1] = (byte) (c >> 16);
+			grb[o + 2] = (byte) c;
+		}
+	}
+
+	/**
+	 * Write the pixels into the frame of the canvas
+	 *
+	 * @return Frame with the current pixels, reused by the next call
+	 */
+	public LedFrame render()
+	{
+		if (frame == null)
+		{
+			frame = new LedFrame(ledCount);
+		}
+
+		render(frame.getReport(), LedFrame.DATA_OFFSET);
+		return frame;
+	}
+
+	/**
+	 * Render the pixels and submit them to the background writer of a device
+	 *
+	 * @param blinkStick	Device to send the frame to
+	 * @param channel	Channel (0 - R, 1 - G, 2 - B)
+	 */
+	public void present(BlinkStick blinkStick, int channel)
+	{
+		LedFrame result = render();
+		result.setChannel(channel);
+		result.setTimestamp(System.nanoTime());
+		blinkStick.getWriter().submit(result);
+	}
+}
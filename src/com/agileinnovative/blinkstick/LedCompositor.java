@@ -0,0 +1,350 @@
+package com.agileinnovative.blinkstick;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Combines several independent layers of LED colors into one frame.
+ *
+ * Layers are blended from the lowest to the highest priority using the layer alpha, and every layer
+ * only covers the LEDs enabled in its mask. Changes mark the affected LEDs dirty and {@link #compose()}
+ * recomposes just the dirty range. A frame is submitted to the device writer only when the composite
+ * actually changed, so many producers updating at a low rate do not multiply USB traffic.
+ *
+ * All methods of the compositor and its layers can be called from any thread.
+ */
+public class LedCompositor {
+
+	/**
+	 * Single layer of the composite
+	 */
+	public class Layer {
+		private final int priority;
+		private final int[] colors = new int[ledCount];
+		private final boolean[] mask = new boolean[ledCount];
+		private int alpha = 255;
+		private boolean visible = true;
+
+		Layer(int priority)
+		{
+			this.priority = priority;
+		}
+
+		/**
+		 * @return Priority of the layer, higher priority layers are drawn on top
+		 */
+		public int getPriority()
+		{
+			return priority;
+		}
+
+		/**
+		 * Set the color of an LED and include it in the mask
+		 *
+		 * @param index	Index of the LED
+		 * @param value	color as int, alpha is ignored
+		 */
+		public void setColor(int index, int value)
+		{
+			synchronized (LedCompositor.this)
+			{
+				if (colors[index] != value || !mask[index])
+				{
+					colors[index] = value;
+					mask[index] = true;
+					markDirty(index, index + 1);
+				}
+			}
+		}
+
+		/**
+		 * Set the color of a range of LEDs and include them in the mask
+		 *
+		 * @param from	Index of the first LED
+		 * @param to	Index after the last LED
+		 * @param value	color as int, alpha is ignored
+		 */
+		public void fill(int from, int to, int value)
+		{
+			synchronized (LedCompositor.this)
+			{
+				for (int i = from; i < to; i++)
+				{
+					colors[i] = value;
+					mask[i] = true;
+				}
+				markDirty(from, to);
+			}
+		}
+
+		/**
+		 * Include or exclude a range of LEDs from the layer without changing their colors
+		 *
+		 * @param from	Index of the first LED
+		 * @param to	Index after the last LED
+		 * @param enabled	true to draw the layer on these LEDs
+		 */
+		public void setMask(int from, int to, boolean enabled)
+		{
+			synchronized (LedCompositor.this)
+			{
+				for (int i = from; i < to; i++)
+				{
+					mask[i] = enabled;
+				}
+				markDirty(from, to);
+			}
+		}
+
+		/**
+		 * Exclude all LEDs from the layer
+		 */
+		public void clear()
+		{
+			setMask(0, ledCount, false);
+		}
+
+		/**
+		 * Set the opacity of the layer
+		 *
+		 * @param value	0 - transparent, 255 - opaque
+		 */
+		public void setAlpha(int value)
+		{
+			value = value < 0 ? 0 : (value > 255 ? 255 : value);
+
+			synchronized (LedCompositor.this)
+			{
+				if (alpha != value)
+				{
+					alpha = value;
+					markMasked(this);
+				}
+			}
+		}
+
+		/**
+		 * Show or hide the layer
+		 *
+		 * @param value	false to skip the layer when composing
+		 */
+		public void setVisible(boolean value)
+		{
+			synchronized (LedCompositor.this)
+			{
+				if (visible != value)
+				{
+					visible = value;
+					markMasked(this);
+				}
+			}
+		}
+
+		/**
+		 * Recompose and submit the frame if it changed, same as {@link LedCompositor#compose()}
+		 *
+		 * @return true if the composite changed
+		 */
+		public boolean commit()
+		{
+			return compose();
+		}
+	}
+
+	private final int ledCount;
+
+	private final List<Layer> layers = new ArrayList<Layer>();
+
+	private final int[] composite;
+
+	private final LedFrame frame;
+
+	private final BlinkStickWriter writer;
+
+	private int dirtyFrom;
+
+	private int dirtyTo;
+
+	/**
+	 * Create compositor which submits frames to the writer of a device
+	 *
+	 * @param blinkStick	Device to send frames to
+	 * @param channel	Channel (0 - R, 1 - G, 2 - B)
+	 * @param ledCount	Number of LEDs 1..64
+	 */
+	public LedCompositor(BlinkStick blinkStick, int channel, int ledCount)
+	{
+		this(blinkStick.getWriter(), channel, ledCount);
+	}
+
+	/**
+	 * Create compositor without output, frames are available from {@link #getFrame()}
+	 *
+	 * @param ledCount	Number of LEDs 1..64
+	 */
+	public LedCompositor(int ledCount)
+	{
+		this((BlinkStickWriter) null, 0, ledCount);
+	}
+
+	private LedCompositor(BlinkStickWriter writer, int channel, int ledCount)
+	{
+		this.ledCount = ledCount;
+		this.writer = writer;
+		this.composite = new int[ledCount];
+		this.frame = new LedFrame(ledCount);
+		this.frame.setChannel(channel);
+		this.dirtyFrom = ledCount;
+		this.dirtyTo = 0;
+	}
+
+	/**
+	 * Add a new empty layer
+	 *
+	 * @param priority	Layers with higher priority are drawn on top, layers with equal priority in the order they were added
+	 * @return New layer
+	 */
+	public synchronized Layer addLayer(int priority)
+	{
+		Layer layer = new Layer(priority);
+
+		int index = layers.size();
+		while (index > 0 && layers.get(index - 1).priority > priority)
+		{
+			index--;
+		}
+		layers.add(index, layer);
+
+		return layer;
+	}
+
+	/**
+	 * Remove a layer
+	 *
+	 * @param layer	Layer to remove
+	 */
+	public synchronized void removeLayer(Layer layer)
+	{
+		if (layers.remove(layer))
+		{
+			markMasked(layer);
+		}
+	}
+
+	/**
+	 * Recompose dirty LEDs and submit the frame if the composite changed
+	 *
+	 * @return true if the composite changed
+	 */
+	public boolean compose()
+	{
+		synchronized (this)
+		{
+			if (!recompose())
+			{
+				return false;
+			}
+
+			if (writer == null)
+			{
+				return true;
+			}
+
+			frame.setTimestamp(System.nanoTime());
+			writer.submit(frame);
+			return true;
+		}
+	}
+
+	/**
+	 * Get the composed frame. The frame is updated by {@link #compose()}.
+	 *
+	 * @return Composed frame
+	 */
+	public LedFrame getFrame()
+	{
+		return frame;
+	}
+
+	private void markDirty(int from, int to)
+	{
+		if (from < dirtyFrom)
+		{
+			dirtyFrom = from;
+		}
+		if (to > dirtyTo)
+		{
+			dirtyTo = to;
+		}
+	}
+
+	private void markMasked(Layer layer)
+	{
+		int first = 0;
+		while (first < ledCount && !layer.mask[first])
+		{
+			first++;
+		}
+
+		int last = ledCount;
+		while (last > first && !layer.mask[last - 1])
+		{
+			last--;
+		}
+
+		if (first < last)
+		{
+			markDirty(first, last);
+		}
+	}
+
+	private boolean recompose()
+	{
+		int from = dirtyFrom;
+		int to = dirtyTo;
+		dirtyFrom = ledCount;
+		dirtyTo = 0;
+
+		boolean changed = false;
+		int layerCount = layers.size();
+
+		for (int i = from; i < to; i++)
+		{
+			int r = 0, g = 0, b = 0;
+
+			for (int l = 0; l < layerCount; l++)
+			{
+				Layer layer = layers.get(l);
+				if (!layer.visible || !layer.mask[i] || layer.alpha == 0)
+				{
+					continue;
+				}
+
+				int c = layer.colors[i];
+				int a = layer.alpha;
+				if (a == 255)
+				{
+					r = (c >> 16) & 0xFF;
+					g = (c >> 8) & 0xFF;
+					b = c & 0xFF;
+				}
+				else
+				{
+					r += ((((c >> 16) & 0xFF) - r) * a) / 255;
+					g += ((((c >> 8) & 0xFF) - g) * a) / 255;
+					b += (((c & 0xFF) - b) * a) / 255;
+				}
+			}
+
+			int value = (255 << 24) | (r << 16) | (g << 8) | b;
+			if (composite[i] != value)
+			{
+				composite[i] = value;
+				frame.setColor(i, value);
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+}
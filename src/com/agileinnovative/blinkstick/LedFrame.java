@@ -0,0 +1,212 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Packed frame of LED colors laid out exactly as the BlinkStick color report expects it.
+ *
+ * The frame owns the complete feature report buffer: [report id, channel, g0, r0, b0, g1, r1, b1 ...],
+ * so producers can write pixels straight into the data that is sent to the device without
+ * any intermediate arrays.
+ */
+public class LedFrame {
+
+	/**
+	 * Maximum number of LEDs that fit into a single color report
+	 */
+	public static final int MAX_LEDS = 64;
+
+	/**
+	 * Offset of the first color byte in the report buffer
+	 */
+	public static final int DATA_OFFSET = 2;
+
+	private final int ledCount;
+
+	private final byte[] report;
+
+	private long timestamp;
+
+	/**
+	 * Create a blank frame for the number of LEDs
+	 *
+	 * @param ledCount	Number of LEDs in the frame 1..64
+	 */
+	public LedFrame(int ledCount)
+	{
+		if (ledCount < 1 || ledCount > MAX_LEDS)
+		{
+			throw new IllegalArgumentException("LED count must be in the range of [1.." + MAX_LEDS + "]");
+		}
+
+		this.ledCount = ledCount;
+		this.report = new byte[BlinkStick.determineMaxLeds(ledCount * 3) * 3 + DATA_OFFSET];
+		this.report[0] = BlinkStick.determineReportId(ledCount * 3);
+	}
+
+	/**
+	 * Get the number of LEDs in the frame
+	 *
+	 * @return Number of LEDs
+	 */
+	public int getLedCount()
+	{
+		return ledCount;
+	}
+
+	/**
+	 * Get the channel the frame is addressed to
+	 *
+	 * @return Channel (0 - R, 1 - G, 2 - B)
+	 */
+	public int getChannel()
+	{
+		return report[1];
+	}
+
+	/**
+	 * Set the channel the frame is addressed to
+	 *
+	 * @param channel	Channel (0 - R, 1 - G, 2 - B)
+	 */
+	public void setChannel(int channel)
+	{
+		report[1] = (byte) channel;
+	}
+
+	/**
+	 * Get the time when the content of the frame was captured
+	 *
+	 * @return Value of {@link System#nanoTime()} or 0 if not set
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	/**
+	 * Set the time when the content of the frame was captured, used to measure latency until the frame is sent
+	 *
+	 * @param nanos	Value of {@link System#nanoTime()} or 0 to clear
+	 */
+	public void setTimestamp(long nanos)
+	{
+		timestamp = nanos;
+	}
+
+	/**
+	 * Set the color of a single LED with separate r, g and b values
+	 *
+	 * @param index	Index of the LED
+	 * @param r	red int color value 0..255
+	 * @param g green int color value 0..255
+	 * @param b blue int color value 0..255
+	 */
+	public void setColor(int index, int r, int g, int b)
+	{
+		int offset = DATA_OFFSET + index * 3;
+		report[offset] = (byte) g;
+		report[offset + 1] = (byte) r;
+		report[offset + 2] = (byte) b;
+	}
+
+	/**
+	 * Set the color of a single LED with Processing color value
+	 *
+	 * @param index	Index of the LED
+	 * @param value	color as int
+	 */
+	public void setColor(int index, int value)
+	{
+		int offset = DATA_OFFSET + index * 3;
+		report[offset] = (byte) (value >> 8);
+		report[offset + 1] = (byte) (value >> 16);
+		report[offset + 2] = (byte) value;
+	}
+
+	/**
+	 * Get the color of a single LED as Processing color value
+	 *
+	 * @param index	Index of the LED
+	 * @return color as int
+	 */
+	public int getColor(int index)
+	{
+		int offset = DATA_OFFSET + index * 3;
+		return (255 << 24)
+				| ((report[offset + 1] & 0xFF) << 16)
+				| ((report[offset] & 0xFF) << 8)
+				| (report[offset + 2] & 0xFF);
+	}
+
+	/**
+	 * Set all LEDs to the same color
+	 *
+	 * @param value	color as int
+	 */
+	public void fill(int value)
+	{
+		for (int i = 0; i < ledCount; i++)
+		{
+			setColor(i, value);
+		}
+	}
+
+	/**
+	 * Turn all LEDs in the frame off
+	 */
+	public void clear()
+	{
+		for (int i = DATA_OFFSET; i < report.length; i++)
+		{
+			report[i] = 0;
+		}
+	}
+
+	/**
+	 * Copy colors and channel from another frame with the same number of LEDs
+	 *
+	 * @param other	Frame to copy from
+	 */
+	public void copyFrom(LedFrame other)
+	{
+		if (other.ledCount != ledCount)
+		{
+			throw new IllegalArgumentException("LED count does not match");
+		}
+
+		System.arraycopy(other.report, 1, report, 1, report.length - 1);
+	}
+
+	/**
+	 * Compare colors and channel with another frame
+	 *
+	 * @param other	Frame to compare with
+	 * @return true if both frames would produce the same report
+	 */
+	public boolean contentEquals(LedFrame other)
+	{
+		if (other.report.length != report.length)
+		{
+			return false;
+		}
+
+		for (int i = 0; i < report.length; i++)
+		{
+			if (report[i] != other.report[i])
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get the backing report buffer. Color data starts at {@link #DATA_OFFSET} in [g0, r0, b0, ...] format.
+	 *
+	 * @return Report buffer which is sent to the device as is
+	 */
+	public byte[] getReport()
+	{
+		return report;
+	}
+}
@@ -0,0 +1,607 @@
+package com.agileinnovative.blinkstick;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Embedded Open Pixel Control server which lets other hosts stream pixels to BlinkStick.
+ *
+ * Messages are [channel, command, length high, length low, data...] with RGB pixel data. TCP and UDP
+ * are served from a single selector thread. Pixel data is decoded directly from the receive buffer
+ * into the report buffer of a {@link LedFrame}, and all frames received for the same channel during
+ * one selector round are coalesced so that only the latest one is sent to the device.
+ *
+ * OPC channels 0 (broadcast) and 1 map to BlinkStick channel 0 (R), 2 maps to 1 (G) and 3 maps to 2 (B).
+ * Messages for other channels and system exclusive messages are ignored.
+ */
+public class OpcServer {
+
+	/**
+	 * OPC command to set pixel colors
+	 */
+	public static final int COMMAND_SET_PIXELS = 0;
+
+	/**
+	 * Default OPC port
+	 */
+	public static final int DEFAULT_PORT = 7890;
+
+	private static final int HEADER_SIZE = 4;
+
+	private static final int MAX_MESSAGE_SIZE = HEADER_SIZE + 0xFFFF;
+
+	/**
+	 * Time in milliseconds after which a silent UDP sender is forgotten
+	 */
+	public static final long UDP_CLIENT_TIMEOUT = 30000;
+
+	/**
+	 * Largest number of UDP senders tracked, the least recently active one is forgotten first
+	 */
+	public static final int MAX_UDP_CLIENTS = 64;
+
+	/**
+	 * Receives decoded frames from the server thread
+	 */
+	public interface FrameListener {
+		/**
+		 * Called on the server thread with the latest frame for a channel. The frame is reused
+		 * by the server and must not be kept after the call returns.
+		 *
+		 * @param frame	Decoded frame, channel is set to the BlinkStick channel
+		 */
+		void onFrame(LedFrame frame);
+	}
+
+	/**
+	 * Traffic statistics of a single client
+	 */
+	public static class ClientStats {
+		private final String address;
+		private final boolean udp;
+		private final long connectedAt;
+		private volatile long bytesReceived;
+		private volatile long messagesReceived;
+		private volatile long lastActivity;
+
+		ClientStats(String address, boolean udp)
+		{
+			this.address = address;
+			this.udp = udp;
+			this.connectedAt = System.nanoTime();
+			this.lastActivity = connectedAt;
+		}
+
+		/**
+		 * @return Remote address of the client
+		 */
+		public String getAddress()
+		{
+			return address;
+		}
+
+		/**
+		 * @return true if the client sends datagrams, false for TCP connections
+		 */
+		public boolean isUdp()
+		{
+			return udp;
+		}
+
+		/**
+		 * @return Total number of bytes received from the client
+		 */
+		public long getBytesReceived()
+		{
+			return bytesReceived;
+		}
+
+		/**
+		 * @return Total number of OPC messages received from the client
+		 */
+		public long getMessagesReceived()
+		{
+			return messagesReceived;
+		}
+
+		/**
+		 * @return Average number of bytes per second since the client connected
+		 */
+		public double getBytesPerSecond()
+		{
+			long elapsed = lastActivity - connectedAt;
+			if (elapsed <= 0)
+			{
+				return 0;
+			}
+
+			return bytesReceived * 1e9 / elapsed;
+		}
+
+		/**
+		 * @return Average number of messages per second since the client connected
+		 */
+		public double getMessagesPerSecond()
+		{
+			long elapsed = lastActivity - connectedAt;
+			if (elapsed <= 0)
+			{
+				return 0;
+			}
+
+			return messagesReceived * 1e9 / elapsed;
+		}
+	}
+
+	/**
+	 * State attached to every TCP connection
+	 */
+	private static class TcpClient {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE);
+		final ClientStats stats;
+
+		TcpClient(ClientStats stats)
+		{
+			this.stats = stats;
+		}
+	}
+
+	private final FrameListener listener;
+
+	private final LedFrame[] pending = new LedFrame[3];
+
+	private final boolean[] dirty = new boolean[3];
+
+	private final List<ClientStats> clients = new CopyOnWriteArrayList<ClientStats>();
+
+	/**
+	 * Known UDP senders, least recently active first
+	 */
+	private final LinkedHashMap<SocketAddress, ClientStats> udpClients = new LinkedHashMap<SocketAddress, ClientStats>(16, 0.75f, true);
+
+	private final ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE);
+
+	private Selector selector;
+
+	private ServerSocketChannel tcpChannel;
+
+	private DatagramChannel udpChannel;
+
+	private Thread thread;
+
+	private volatile boolean running;
+
+	/**
+	 * Create server which sends received frames to BlinkStick device
+	 *
+	 * @param blinkStick	Device to send frames to
+	 */
+	public OpcServer(final BlinkStick blinkStick)
+	{
+		this(new FrameListener() {
+			public void onFrame(LedFrame frame) {
+				blinkStick.setColors(frame);
+			}
+		});
+	}
+
+	/**
+	 * Create server which delivers received frames to a listener
+	 *
+	 * @param listener	Listener to receive decoded frames
+	 */
+	public OpcServer(FrameListener listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Start listening on the default OPC port for both TCP and UDP
+	 *
+	 * @throws IOException if the ports can not be bound
+	 */
+	public void start() throws IOException
+	{
+		start(DEFAULT_PORT, DEFAULT_PORT);
+	}
+
+	/**
+	 * Start listening and serving clients on a background thread
+	 *
+	 * @param tcpPort	TCP port to listen on, 0 for any free port or -1 to disable TCP
+	 * @param udpPort	UDP port to listen on, 0 for any free port or -1 to disable UDP
+	 * @throws IOException if the ports can not be bound
+	 */
+	public synchronized void start(int tcpPort, int udpPort) throws IOException
+	{
+		if (running)
+		{
+			throw new IllegalStateException("Server is already running");
+		}
+
+		selector = Selector.open();
+
+		try
+		{
+			if (tcpPort >= 0)
+			{
+				tcpChannel = ServerSocketChannel.open();
+				tcpChannel.socket().setReuseAddress(true);
+				tcpChannel.socket().bind(new InetSocketAddress(tcpPort));
+				tcpChannel.configureBlocking(false);
+				tcpChannel.register(selector, SelectionKey.OP_ACCEPT);
+			}
+
+			if (udpPort >= 0)
+			{
+				udpChannel = DatagramChannel.open();
+				udpChannel.socket().bind(new InetSocketAddress(udpPort));
+				udpChannel.configureBlocking(false);
+				udpChannel.register(selector, SelectionKey.OP_READ);
+			}
+		}
+		catch (IOException e)
+		{
+			closeChannels();
+			throw e;
+		}
+
+		running = true;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				serve();
+			}
+		}, "OpcServer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the server and disconnect all clients
+	 */
+	public void stop()
+	{
+		Thread t;
+		synchronized (this)
+		{
+			if (!running)
+			{
+				return;
+			}
+
+			running = false;
+			selector.wakeup();
+			t = thread;
+			thread = null;
+		}
+
+		if (t == Thread.currentThread())
+		{
+			return;
+		}
+
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Check if server is running
+	 *
+	 * @return true if the server thread is running
+	 */
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	/**
+	 * Get the bound TCP port
+	 *
+	 * @return Local TCP port or -1 if TCP is disabled
+	 */
+	public int getTcpPort()
+	{
+		ServerSocketChannel channel = tcpChannel;
+		return channel != null ? channel.socket().getLocalPort() : -1;
+	}
+
+	/**
+	 * Get the bound UDP port
+	 *
+	 * @return Local UDP port or -1 if UDP is disabled
+	 */
+	public int getUdpPort()
+	{
+		DatagramChannel channel = udpChannel;
+		return channel != null ? channel.socket().getLocalPort() : -1;
+	}
+
+	/**
+	 * Get traffic statistics of connected TCP clients and UDP senders active within {@link #UDP_CLIENT_TIMEOUT}
+	 *
+	 * @return Snapshot of client statistics
+	 */
+	public List<ClientStats> getClientStats()
+	{
+		return new ArrayList<ClientStats>(clients);
+	}
+
+	private void serve()
+	{
+		try
+		{
+			while (running)
+			{
+				// Wake up while UDP senders are known so silent ones are forgotten
+				selector.select(udpClients.isEmpty() ? 0 : UDP_CLIENT_TIMEOUT);
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					if (!key.isValid())
+					{
+						continue;
+					}
+
+					if (key.isAcceptable())
+					{
+						accept();
+					}
+					else if (key.channel() == udpChannel)
+					{
+						receiveDatagrams();
+					}
+					else if (key.isReadable())
+					{
+						readStream(key);
+					}
+				}
+
+				flush();
+				expireUdpClients(System.nanoTime() - UDP_CLIENT_TIMEOUT * 1000000L);
+			}
+		}
+		catch (ClosedSelectorException e)
+		{
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			running = false;
+			closeChannels();
+		}
+	}
+
+	private void accept() throws IOException
+	{
+		SocketChannel channel = tcpChannel.accept();
+		if (channel == null)
+		{
+			return;
+		}
+
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+
+		ClientStats stats = new ClientStats(String.valueOf(channel.socket().getRemoteSocketAddress()), false);
+		clients.add(stats);
+		channel.register(selector, SelectionKey.OP_READ, new TcpClient(stats));
+	}
+
+	private void readStream(SelectionKey key)
+	{
+		SocketChannel channel = (SocketChannel) key.channel();
+		TcpClient client = (TcpClient) key.attachment();
+
+		int read;
+		try {
+			read = channel.read(client.buffer);
+		} catch (IOException e) {
+			read = -1;
+		}
+
+		if (read < 0)
+		{
+			key.cancel();
+			clients.remove(client.stats);
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+			return;
+		}
+
+		client.stats.bytesReceived += read;
+		client.stats.lastActivity = System.nanoTime();
+
+		client.buffer.flip();
+		decodeMessages(client.buffer, client.stats);
+		client.buffer.compact();
+	}
+
+	private void receiveDatagrams() throws IOException
+	{
+		SocketAddress sender;
+		while ((sender = udpChannel.receive(datagram)) != null)
+		{
+			ClientStats stats = udpClients.get(sender);
+			if (stats == null)
+			{
+				if (udpClients.size() >= MAX_UDP_CLIENTS)
+				{
+					clients.remove(udpClients.remove(udpClients.keySet().iterator().next()));
+				}
+
+				stats = new ClientStats(String.valueOf(sender), true);
+				udpClients.put(sender, stats);
+				clients.add(stats);
+			}
+
+			datagram.flip();
+			stats.bytesReceived += datagram.remaining();
+			stats.lastActivity = System.nanoTime();
+
+			decodeMessages(datagram, stats);
+			datagram.clear();
+		}
+	}
+
+	/**
+	 * Forget UDP senders without datagrams since the given time
+	 *
+	 * @param idleSince	Value of {@link System#nanoTime()}
+	 */
+	private void expireUdpClients(long idleSince)
+	{
+		Iterator<ClientStats> senders = udpClients.values().iterator();
+		while (senders.hasNext())
+		{
+			ClientStats stats = senders.next();
+			if (stats.lastActivity - idleSince > 0)
+			{
+				// Ordered by activity, all following senders are newer
+				break;
+			}
+
+			senders.remove();
+			clients.remove(stats);
+		}
+	}
+
+	/**
+	 * Decode all complete messages in the buffer. Incomplete trailing message is left in the buffer.
+	 */
+	private void decodeMessages(ByteBuffer buffer, ClientStats stats)
+	{
+		while (buffer.remaining() >= HEADER_SIZE)
+		{
+			int start = buffer.position();
+			int length = buffer.getShort(start + 2) & 0xFFFF;
+
+			if (buffer.remaining() < HEADER_SIZE + length)
+			{
+				break;
+			}
+
+			int opcChannel = buffer.get(start) & 0xFF;
+			int command = buffer.get(start + 1) & 0xFF;
+
+			if (command == COMMAND_SET_PIXELS && opcChannel <= 3)
+			{
+				buffer.position(start + HEADER_SIZE);
+				decodePixels(buffer, opcChannel == 0 ? 0 : opcChannel - 1, length / 3);
+			}
+
+			stats.messagesReceived++;
+			buffer.position(start + HEADER_SIZE + length);
+		}
+	}
+
+	private void decodePixels(ByteBuffer buffer, int channel, int pixels)
+	{
+		if (pixels == 0)
+		{
+			return;
+		}
+
+		if (pixels > LedFrame.MAX_LEDS)
+		{
+			pixels = LedFrame.MAX_LEDS;
+		}
+
+		LedFrame frame = pending[channel];
+		if (frame == null || frame.getLedCount() != pixels)
+		{
+			frame = new LedFrame(pixels);
+			frame.setChannel(channel);
+			pending[channel] = frame;
+		}
+
+		byte[] report = frame.getReport();
+		int offset = LedFrame.DATA_OFFSET;
+		for (int i = 0; i < pixels; i++)
+		{
+			byte r = buffer.get();
+			report[offset++] = buffer.get();
+			report[offset++] = r;
+			report[offset++] = buffer.get();
+		}
+
+		dirty[channel] = true;
+	}
+
+	private void flush()
+	{
+		for (int channel = 0; channel < dirty.length; channel++)
+		{
+			if (dirty[channel])
+			{
+				dirty[channel] = false;
+
+				try {
+					listener.onFrame(pending[channel]);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void closeChannels()
+	{
+		try {
+			if (selector != null)
+			{
+				for (SelectionKey key : selector.keys())
+				{
+					key.channel().close();
+				}
+				selector.close();
+			}
+		} catch (IOException e) {
+		}
+
+		try {
+			if (tcpChannel != null)
+			{
+				tcpChannel.close();
+			}
+		} catch (IOException e) {
+		}
+
+		try {
+			if (udpChannel != null)
+			{
+				udpChannel.close();
+			}
+		} catch (IOException e) {
+		}
+
+		tcpChannel = null;
+		udpChannel = null;
+		clients.clear();
+		udpClients.clear();
+	}
+}
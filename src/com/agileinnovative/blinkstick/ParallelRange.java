@@ -0,0 +1,207 @@
+package com.agileinnovative.blinkstick;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits an index range into chunks and processes them on several cores.
+ *
+ * ForkJoinPool is not available on the minimum supported Android version, so the work is split
+ * into chunks of the threshold size which the calling thread and the pool threads claim until
+ * the range is exhausted. Ranges not larger than the threshold run inline on the calling thread.
+ */
+public class ParallelRange {
+
+	/**
+	 * Work on a part of the range
+	 */
+	public interface Body {
+		/**
+		 * Process indexes from (inclusive) to (exclusive). Called concurrently for disjoint ranges.
+		 *
+		 * @param from	First index
+		 * @param to	Index after the last one
+		 */
+		void run(int from, int to);
+	}
+
+	private static ParallelRange defaultInstance;
+
+	private final ExecutorService executor;
+
+	private final int parallelism;
+
+	/**
+	 * Get shared instance with one thread per available core
+	 *
+	 * @return Shared instance
+	 */
+	public static synchronized ParallelRange getDefault()
+	{
+		if (defaultInstance == null)
+		{
+			defaultInstance = new ParallelRange(Runtime.getRuntime().availableProcessors());
+		}
+
+		return defaultInstance;
+	}
+
+	/**
+	 * Create instance with its own daemon threads
+	 *
+	 * @param parallelism	Number of threads working on a range including the calling thread
+	 */
+	public ParallelRange(int parallelism)
+	{
+		this.parallelism = Math.max(1, parallelism);
+
+		if (this.parallelism > 1)
+		{
+			final AtomicInteger count = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(this.parallelism - 1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ParallelRange-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		else
+		{
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return Number of threads working on a range including the calling thread
+	 */
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * Process the range and wait until all chunks are done
+	 *
+	 * @param from	First index
+	 * @param to	Index after the last one
+	 * @param threshold	Maximum number of indexes processed as one chunk
+	 * @param body	Work to do for each chunk
+	 */
+	public void run(int from, int to, int threshold, Body body)
+	{
+		if (threshold < 1)
+		{
+			threshold = 1;
+		}
+
+		int length = to - from;
+		if (length <= threshold || executor == null)
+		{
+			if (length > 0)
+			{
+				body.run(from, to);
+			}
+			return;
+		}
+
+		int chunks = (length + threshold - 1) / threshold;
+		Job job = new Job(from, to, threshold, chunks, body);
+
+		// Helpers which start after all chunks were claimed return immediately,
+		// so only chunks in progress are waited for and nested use can not deadlock
+		int helpers = Math.min(parallelism, chunks) - 1;
+		for (int i = 0; i < helpers; i++)
+		{
+			try {
+				executor.execute(job);
+			} catch (RejectedExecutionException e) {
+				break;
+			}
+		}
+
+		job.work();
+
+		boolean interrupted = false;
+		while (true)
+		{
+			try {
+				job.done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		if (job.failure != null)
+		{
+			throw new RuntimeException("Parallel range failed", job.failure);
+		}
+	}
+
+	/**
+	 * Stop the threads. Ranges are run on the calling thread afterwards.
+	 */
+	public void shutdown()
+	{
+		if (executor != null)
+		{
+			executor.shutdown();
+		}
+	}
+
+	private static class Job implements Runnable {
+		final int to;
+		final int threshold;
+		final Body body;
+		final AtomicInteger next;
+		final CountDownLatch done;
+		volatile Throwable failure;
+
+		Job(int from, int to, int threshold, int chunks, Body body)
+		{
+			this.to = to;
+			this.threshold = threshold;
+			this.body = body;
+			this.next = new AtomicInteger(from);
+			this.done = new CountDownLatch(chunks);
+		}
+
+		public void run()
+		{
+			work();
+		}
+
+		void work()
+		{
+			int start;
+			while ((start = next.getAndAdd(threshold)) < to)
+			{
+				try
+				{
+					if (failure == null)
+					{
+						body.run(start, Math.min(start + threshold, to));
+					}
+				}
+				catch (Throwable e)
+				{
+					failure = e;
+				}
+				finally
+				{
+					done.countDown();
+				}
+			}
+		}
+	}
+}
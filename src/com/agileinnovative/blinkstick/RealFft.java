@@ -0,0 +1,184 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Preplanned FFT of real valued input.
+ *
+ * Bit reversal order, twiddle factors and the window are computed once in the constructor and all
+ * work buffers are reused, so transforms do not allocate. The real input of size n is packed into a
+ * complex transform of size n / 2 which is then split into the n / 2 + 1 bins of the real spectrum.
+ */
+public class RealFft {
+
+	private final int size;
+
+	private final int half;
+
+	private final int[] bitReverse;
+
+	private final float[] cos;
+
+	private final float[] sin;
+
+	private final float[] splitCos;
+
+	private final float[] splitSin;
+
+	private final float[] window;
+
+	private final float windowGain;
+
+	private final float[] re;
+
+	private final float[] im;
+
+	/**
+	 * Plan transform with Hann window
+	 *
+	 * @param size	Number of input samples, power of two of at least 4
+	 */
+	public RealFft(int size)
+	{
+		if (size < 4 || (size & (size - 1)) != 0)
+		{
+			throw new IllegalArgumentException("Size must be a power of two of at least 4");
+		}
+
+		this.size = size;
+		this.half = size / 2;
+
+		int bits = Integer.numberOfTrailingZeros(half);
+		bitReverse = new int[half];
+		for (int i = 0; i < half; i++)
+		{
+			bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+
+		cos = new float[half / 2];
+		sin = new float[half / 2];
+		for (int i = 0; i < half / 2; i++)
+		{
+			cos[i] = (float) Math.cos(2 * Math.PI * i / half);
+			sin[i] = (float) Math.sin(2 * Math.PI * i / half);
+		}
+
+		splitCos = new float[half + 1];
+		splitSin = new float[half + 1];
+		for (int i = 0; i <= half; i++)
+		{
+			splitCos[i] = (float) Math.cos(2 * Math.PI * i / size);
+			splitSin[i] = (float) Math.sin(2 * Math.PI * i / size);
+		}
+
+		window = new float[size];
+		float sum = 0;
+		for (int i = 0; i < size; i++)
+		{
+			window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / size));
+			sum += window[i];
+		}
+		windowGain = sum;
+
+		re = new float[half];
+		im = new float[half];
+	}
+
+	/**
+	 * @return Number of input samples
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * @return Number of spectrum bins, size / 2 + 1
+	 */
+	public int getBinCount()
+	{
+		return half + 1;
+	}
+
+	/**
+	 * Compute windowed magnitude spectrum. A full scale sine wave at a bin frequency gives a magnitude of about 1.
+	 *
+	 * @param input	Ring buffer of exactly size samples in the range of [-1..1]
+	 * @param start	Index of the oldest sample in the ring buffer
+	 * @param magnitudes	Array of at least size / 2 + 1 values to receive magnitudes
+	 */
+	public void magnitudes(float[] input, int start, float[] magnitudes)
+	{
+		if (input.length != size)
+		{
+			throw new IllegalArgumentException("Input must have " + size + " samples");
+		}
+
+		int mask = size - 1;
+
+		// Pack even samples into real and odd samples into imaginary parts in bit reversed order
+		for (int i = 0; i < half; i++)
+		{
+			int even = 2 * i;
+			int j = bitReverse[i];
+			re[j] = input[(start + even) & mask] * window[even];
+			im[j] = input[(start + even + 1) & mask] * window[even + 1];
+		}
+
+		transform();
+
+		float scale = 2f / windowGain;
+
+		for (int k = 0; k <= half; k++)
+		{
+			int k1 = k == half ? 0 : k;
+			int k2 = k == 0 ? 0 : half - k;
+
+			float ar = re[k1], ai = im[k1];
+			float cr = re[k2], ci = im[k2];
+
+			float evenRe = (ar + cr) * 0.5f;
+			float evenIm = (ai - ci) * 0.5f;
+			float oddRe = (ai + ci) * 0.5f;
+			float oddIm = (cr - ar) * 0.5f;
+
+			float wr = splitCos[k];
+			float wi = -splitSin[k];
+
+			float xr = evenRe + wr * oddRe - wi * oddIm;
+			float xi = evenIm + wr * oddIm + wi * oddRe;
+
+			magnitudes[k] = (float) Math.sqrt(xr * xr + xi * xi) * scale;
+		}
+	}
+
+	/**
+	 * In place radix 2 complex transform of the bit reversed work buffers
+	 */
+	private void transform()
+	{
+		for (int length = 2; length <= half; length <<= 1)
+		{
+			int step = half / length;
+			int halfLength = length >> 1;
+
+			for (int i = 0; i < half; i += length)
+			{
+				for (int j = 0; j < halfLength; j++)
+				{
+					float wr = cos[j * step];
+					float wi = -sin[j * step];
+
+					int a = i + j;
+					int b = a + halfLength;
+
+					float tr = re[b] * wr - im[b] * wi;
+					float ti = re[b] * wi + im[b] * wr;
+
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package com.agileinnovative.blinkstick;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Ring buffer of feature reports sent to a device, used to find out what the library actually sent
+ * when investigating flicker or lag.
+ *
+ * All storage is allocated up front and recording copies the report into the ring, so a recorder can
+ * stay attached with {@link BlinkStick#setReportTrace(ReportTrace)} in production. When the ring is
+ * full the oldest records are overwritten. Traces can be saved to a compact file and replayed with
+ * {@link ReportTraceReplayer}.
+ *
+ * File layout, all values big endian: "BSTR", u8 version, u32 record count, then for every record
+ * u64 timestamp in nanoseconds relative to the first record, u32 transfer duration in nanoseconds,
+ * i32 transfer result, u16 report length and the report bytes starting with the report id.
+ */
+public class ReportTrace {
+
+	private static final int MAGIC = 0x42535452;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Size of the largest report sent by the library
+	 */
+	public static final int MAX_REPORT_SIZE = LedFrame.MAX_LEDS * 3 + LedFrame.DATA_OFFSET;
+
+	private final int capacity;
+
+	private final long[] timestamps;
+
+	private final int[] durations;
+
+	private final int[] results;
+
+	private final short[] lengths;
+
+	private final byte[] reports;
+
+	private long recorded;
+
+	/**
+	 * Create trace with preallocated storage
+	 *
+	 * @param capacity	Number of most recent reports to keep
+	 */
+	public ReportTrace(int capacity)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+
+		this.capacity = capacity;
+		timestamps = new long[capacity];
+		durations = new int[capacity];
+		results = new int[capacity];
+		lengths = new short[capacity];
+		reports = new byte[capacity * MAX_REPORT_SIZE];
+	}
+
+	/**
+	 * Record a report transfer
+	 *
+	 * @param report	Report bytes starting with report id
+	 * @param length	Number of bytes sent, longer reports are truncated to {@link #MAX_REPORT_SIZE}
+	 * @param timestamp	Value of {@link System#nanoTime()} when the transfer started
+	 * @param duration	Transfer duration in nanoseconds
+	 * @param result	Transfer result
+	 */
+	public synchronized void record(byte[] report, int length, long timestamp, long duration, int result)
+	{
+		int slot = (int) (recorded % capacity);
+		int size = Math.min(length, MAX_REPORT_SIZE);
+
+		timestamps[slot] = timestamp;
+		durations[slot] = (int) Math.min(duration, Integer.MAX_VALUE);
+		results[slot] = result;
+		lengths[slot] = (short) size;
+		System.arraycopy(report, 0, reports, slot * MAX_REPORT_SIZE, size);
+
+		recorded++;
+	}
+
+	/**
+	 * @return Number of records available, at most the capacity
+	 */
+	public synchronized int size()
+	{
+		return (int) Math.min(recorded, capacity);
+	}
+
+	/**
+	 * @return Total number of reports recorded including the ones overwritten
+	 */
+	public synchronized long getRecordedCount()
+	{
+		return recorded;
+	}
+
+	/**
+	 * Remove all records
+	 */
+	public synchronized void clear()
+	{
+		recorded = 0;
+	}
+
+	/**
+	 * @param index	Record index, 0 is the oldest available record
+	 * @return Value of {@link System#nanoTime()} when the transfer started
+	 */
+	public synchronized long getTimestamp(int index)
+	{
+		return timestamps[slotOf(index)];
+	}
+
+	/**
+	 * @param index	Record index, 0 is the oldest available record
+	 * @return Transfer duration in nanoseconds
+	 */
+	public synchronized int getDuration(int index)
+	{
+		return durations[slotOf(index)];
+	}
+
+	/**
+	 * @param index	Record index, 0 is the oldest available record
+	 * @return Transfer result, negative on failure
+	 */
+	public synchronized int getResult(int index)
+	{
+		return results[slotOf(index)];
+	}
+
+	/**
+	 * @param index	Record index, 0 is the oldest available record
+	 * @return Report id
+	 */
+	public synchronized int getReportId(int index)
+	{
+		return reports[slotOf(index) * MAX_REPORT_SIZE];
+	}
+
+	/**
+	 * Copy report bytes of a record
+	 *
+	 * @param index	Record index, 0 is the oldest available record
+	 * @param buffer	Buffer of at least {@link #MAX_REPORT_SIZE} bytes
+	 * @return Report length
+	 */
+	public synchronized int getReport(int index, byte[] buffer)
+	{
+		int slot = slotOf(index);
+		System.arraycopy(reports, slot * MAX_REPORT_SIZE, buffer, 0, lengths[slot]);
+		return lengths[slot];
+	}
+
+	/**
+	 * Save available records to a file
+	 *
+	 * @param file	File to write to
+	 * @throws IOException if the file can not be written
+	 */
+	public void save(File file) throws IOException
+	{
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try
+		{
+			writeTo(out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Write available records to a stream
+	 *
+	 * @param stream	Stream to write to, not closed
+	 * @throws IOException if the stream can not be written
+	 */
+	public synchronized void writeTo(OutputStream stream) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(stream);
+		int count = size();
+		long first = count > 0 ? getTimestamp(0) : 0;
+
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeInt(count);
+
+		for (int i = 0; i < count; i++)
+		{
+			int slot = slotOf(i);
+			out.writeLong(timestamps[slot] - first);
+			out.writeInt(durations[slot]);
+			out.writeInt(results[slot]);
+			out.writeShort(lengths[slot]);
+			out.write(reports, slot * MAX_REPORT_SIZE, lengths[slot]);
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Load trace saved with {@link #save(File)}
+	 *
+	 * @param file	File to read
+	 * @return Trace with the capacity of the number of records in the file
+	 * @throws IOException if the file can not be read or is not a trace file
+	 */
+	public static ReportTrace load(File file) throws IOException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try
+		{
+			return readFrom(in);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Read trace written with {@link #writeTo(OutputStream)}
+	 *
+	 * @param stream	Stream to read from, not closed
+	 * @return Trace with the capacity of the number of records in the stream
+	 * @throws IOException if the stream can not be read or does not contain a trace
+	 */
+	public static ReportTrace readFrom(InputStream stream) throws IOException
+	{
+		DataInputStream in = new DataInputStream(stream);
+
+		if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+		{
+			throw new IOException("Not a BlinkStick report trace");
+		}
+
+		int count = in.readInt();
+		if (count < 0)
+		{
+			throw new IOException("Corrupt record count " + count);
+		}
+
+		ReportTrace trace = new ReportTrace(Math.max(1, count));
+		byte[] report = new byte[MAX_REPORT_SIZE];
+
+		for (int i = 0; i < count; i++)
+		{
+			long timestamp = in.readLong();
+			int duration = in.readInt();
+			int result = in.readInt();
+			int length = in.readUnsignedShort();
+			if (length > MAX_REPORT_SIZE)
+			{
+				throw new IOException("Corrupt record " + i);
+			}
+			in.readFully(report, 0, length);
+
+			trace.record(report, length, timestamp, duration, result);
+		}
+
+		return trace;
+	}
+
+	private int slotOf(int index)
+	{
+		int count = size();
+		if (index < 0 || index >= count)
+		{
+			throw new IndexOutOfBoundsException("Index " + index + " of " + count);
+		}
+
+		return (int) ((recorded - count + index) % capacity);
+	}
+}
@@ -0,0 +1,115 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Sends the reports of a recorded {@link ReportTrace} through a transport again, so that a captured
+ * workload becomes a repeatable benchmark of a device, a transport or a library change.
+ */
+public class ReportTraceReplayer {
+
+	private final BlinkStickTransport transport;
+
+	private final LatencyHistogram transferTime = new LatencyHistogram();
+
+	private final LatencyHistogram lateness = new LatencyHistogram();
+
+	private int failures;
+
+	private long elapsed;
+
+	/**
+	 * Create replayer for a transport
+	 *
+	 * @param transport	Transport to send the reports through
+	 */
+	public ReportTraceReplayer(BlinkStickTransport transport)
+	{
+		this.transport = transport;
+	}
+
+	/**
+	 * Send all reports of the trace on the calling thread. Statistics of previous replays are cleared.
+	 *
+	 * @param trace	Trace to replay
+	 * @param realTime	true to keep the original timing between reports, false to send them as fast as possible
+	 * @throws InterruptedException if the thread was interrupted while waiting for the next report
+	 */
+	public void replay(ReportTrace trace, boolean realTime) throws InterruptedException
+	{
+		transferTime.reset();
+		lateness.reset();
+		failures = 0;
+
+		byte[] report = new byte[ReportTrace.MAX_REPORT_SIZE];
+		int count = trace.size();
+		long first = count > 0 ? trace.getTimestamp(0) : 0;
+		long start = System.nanoTime();
+
+		for (int i = 0; i < count; i++)
+		{
+			int length = trace.getReport(i, report);
+
+			if (realTime)
+			{
+				long due = start + trace.getTimestamp(i) - first;
+				long wait = due - System.nanoTime();
+				if (wait > 0)
+				{
+					Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+				}
+				lateness.record(System.nanoTime() - due);
+			}
+
+			long sent = System.nanoTime();
+			int result = transport.sendFeatureReport(report, length);
+			transferTime.record(System.nanoTime() - sent);
+
+			if (result < 0)
+			{
+				failures++;
+			}
+		}
+
+		elapsed = System.nanoTime() - start;
+	}
+
+	/**
+	 * @return Duration of the transfers of the last replay
+	 */
+	public LatencyHistogram getTransferTimeHistogram()
+	{
+		return transferTime;
+	}
+
+	/**
+	 * @return Delay of reports behind their original schedule in the last real time replay
+	 */
+	public LatencyHistogram getLatenessHistogram()
+	{
+		return lateness;
+	}
+
+	/**
+	 * @return Number of failed transfers in the last replay
+	 */
+	public int getFailures()
+	{
+		return failures;
+	}
+
+	/**
+	 * @return Duration of the last replay in nanoseconds
+	 */
+	public long getElapsed()
+	{
+		return elapsed;
+	}
+
+	/**
+	 * @return Reports per second achieved in the last replay
+	 */
+	public double getReportsPerSecond()
+	{
+		long count = transferTime.getCount();
+		return elapsed > 0 ? count * 1e9 / elapsed : 0;
+	}
+}
@@ -0,0 +1,86 @@
+package com.agileinnovative.blinkstick;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDeviceConnection;
+
+/**
+ * Transport which exchanges feature reports through Android USB host API control transfers.
+ */
+public class UsbTransport implements BlinkStickTransport {
+
+	private final UsbDeviceConnection connection;
+
+	/**
+	 * Create transport for an open connection
+	 * 
+	 * @param connection	Connection object to communicate with BlinkStick device
+	 */
+	public UsbTransport(UsbDeviceConnection connection)
+	{
+		this.connection = connection;
+	}
+
+	/**
+	 * @return USB connection used by the transport
+	 */
+	public UsbDeviceConnection getConnection()
+	{
+		return connection;
+	}
+
+	public int sendFeatureReport(byte[] buffer, int length)
+	{
+		return connection.controlTransfer(0x20, 0x9, buffer[0], 0, buffer, length, 2000);
+	}
+
+	public int getFeatureReport(byte[] buffer, int length)
+	{
+		return connection.controlTransfer(0x80 | 0x20, 0x1, buffer[0], 0, buffer, length, 2000);
+	}
+
+	public String getSerial()
+	{
+		return connection.getSerial();
+	}
+
+	public String getManufacturer()
+	{
+		return getStringDescriptor(14);
+	}
+
+	public String getProduct()
+	{
+		return getStringDescriptor(15);
+	}
+
+	public void close()
+	{
+		connection.close();
+	}
+
+	/** 
+	 * Read string descriptor referenced from the device descriptor
+	 * 
+	 * @param offset	Offset of the string index in the device descriptor
+	 * @return Descriptor value or empty string if it could not be read
+	 */
+	private String getStringDescriptor(int offset)
+	{
+		try
+		{
+			byte[] rawDescs = connection.getRawDescriptors();
+			byte[] buffer = new byte[255];
+			int index = rawDescs[offset];
+
+			int rdo = connection.controlTransfer(UsbConstants.USB_DIR_IN
+					| UsbConstants.USB_TYPE_STANDARD, BlinkStick.STD_USB_REQUEST_GET_DESCRIPTOR,
+					(BlinkStick.LIBUSB_DT_STRING << 8) | index, 0, buffer, 0xFF, 0);
+
+			return new String(buffer, 2, rdo - 2, "UTF-16LE");
+		}
+		catch (Exception e)
+		{
+			return "";
+		}
+	}
+}
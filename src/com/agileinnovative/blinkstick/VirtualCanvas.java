@@ -0,0 +1,236 @@
+package com.agileinnovative.blinkstick;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One logical strip of LEDs spread over the channels of several BlinkStick devices.
+ *
+ * Colors are kept in a single packed GRB buffer in the same byte order as the color reports.
+ * Effects are rendered over the whole canvas in parallel with {@link ParallelRange}, each worker
+ * writing a disjoint range of the buffer. {@link #present()} then slices the buffer into one frame
+ * per mapped device and channel and hands the frames to the background writers of the devices.
+ */
+public class VirtualCanvas {
+
+	/**
+	 * Default number of LEDs rendered as one chunk. Handing a chunk to another thread costs about as
+	 * much as rendering 100 LEDs of a table driven effect, so smaller chunks spend more than a tenth
+	 * of the time on the hand over. Measured with VirtualCanvasBenchmark.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	/**
+	 * Effect rendered into the canvas
+	 */
+	public interface Effect {
+		/**
+		 * Render a range of LEDs. Called concurrently for disjoint ranges, so implementations
+		 * must only write LEDs of their range and must not keep mutable state shared between ranges.
+		 *
+		 * @param canvas	Canvas to write to with {@link VirtualCanvas#setColor(int, int, int, int)}
+		 * @param from	Index of the first LED
+		 * @param to	Index after the last LED
+		 * @param time	Frame time in nanoseconds
+		 */
+		void render(VirtualCanvas canvas, int from, int to, long time);
+	}
+
+	private static class Segment {
+		final BlinkStick blinkStick;
+		final int offset;
+		final LedFrame frame;
+
+		Segment(BlinkStick blinkStick, int channel, int offset, int ledCount)
+		{
+			this.blinkStick = blinkStick;
+			this.offset = offset;
+			this.frame = new LedFrame(ledCount);
+			this.frame.setChannel(channel);
+		}
+	}
+
+	private final int size;
+
+	private final byte[] data;
+
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	private ParallelRange parallel = ParallelRange.getDefault();
+
+	private int threshold = DEFAULT_THRESHOLD;
+
+	/**
+	 * Create canvas
+	 *
+	 * @param size	Total number of LEDs
+	 */
+	public VirtualCanvas(int size)
+	{
+		if (size < 1)
+		{
+			throw new IllegalArgumentException("Size must be positive");
+		}
+
+		this.size = size;
+		this.data = new byte[size * 3];
+	}
+
+	/**
+	 * @return Total number of LEDs
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Map a range of the canvas to a channel of a device
+	 *
+	 * @param blinkStick	Device to send the range to
+	 * @param channel	Channel (0 - R, 1 - G, 2 - B)
+	 * @param offset	Index of the canvas LED shown on the first LED of the channel
+	 * @param ledCount	Number of LEDs on the channel 1..64
+	 */
+	public synchronized void map(BlinkStick blinkStick, int channel, int offset, int ledCount)
+	{
+		if (offset < 0 || offset + ledCount > size)
+		{
+			throw new IllegalArgumentException("Range " + offset + ".." + (offset + ledCount) + " outside of canvas of " + size);
+		}
+
+		segments.add(new Segment(blinkStick, channel, offset, ledCount));
+	}
+
+	/**
+	 * Map consecutive ranges of the canvas to channel 0 of the devices, 64 LEDs each
+	 *
+	 * @param blinkSticks	Devices in the order they are chained
+	 * @return Number of canvas LEDs mapped
+	 */
+	public int mapAll(BlinkStick[] blinkSticks)
+	{
+		int offset = 0;
+		for (int i = 0; i < blinkSticks.length && offset < size; i++)
+		{
+			int ledCount = Math.min(LedFrame.MAX_LEDS, size - offset);
+			map(blinkSticks[i], 0, offset, ledCount);
+			offset += ledCount;
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Use a different thread pool for rendering
+	 *
+	 * @param parallel	Pool to render on
+	 */
+	public synchronized void setParallelRange(ParallelRange parallel)
+	{
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Set the number of LEDs rendered as one chunk. Cheap effects need larger chunks to benefit from
+	 * several cores, expensive ones can use smaller chunks for better load balancing.
+	 *
+	 * @param threshold	LEDs per chunk, canvases not larger than this are rendered on the calling thread
+	 */
+	public synchronized void setThreshold(int threshold)
+	{
+		this.threshold = Math.max(1, threshold);
+	}
+
+	/**
+	 * Render an effect over the whole canvas and wait until it is done
+	 *
+	 * @param effect	Effect to render
+	 * @param time	Frame time in nanoseconds passed to the effect
+	 */
+	public void render(final Effect effect, final long time)
+	{
+		ParallelRange pool;
+		int chunk;
+		synchronized (this)
+		{
+			pool = parallel;
+			chunk = threshold;
+		}
+
+		pool.run(0, size, chunk, new ParallelRange.Body() {
+			public void run(int from, int to) {
+				effect.render(VirtualCanvas.this, from, to, time);
+			}
+		});
+	}
+
+	/**
+	 * Set the color of an LED
+	 *
+	 * @param index	Index of the LED
+	 * @param r	red byte color value 0..255
+	 * @param g	green byte color value 0..255
+	 * @param b	blue byte color value 0..255
+	 */
+	public void setColor(int index, int r, int g, int b)
+	{
+		int i = index * 3;
+		data[i] = (byte) g;
+		data[i + 1] = (byte) r;
+		data[i + 2] = (byte) b;
+	}
+
+	/**
+	 * Set the color of an LED
+	 *
+	 * @param index	Index of the LED
+	 * @param value	color as int, alpha is ignored
+	 */
+	public void setColor(int index, int value)
+	{
+		setColor(index, (value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF);
+	}
+
+	/**
+	 * Get the color of an LED
+	 *
+	 * @param index	Index of the LED
+	 * @return color as int with full alpha
+	 */
+	public int getColor(int index)
+	{
+		int i = index * 3;
+		return (255 << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+	}
+
+	/**
+	 * Packed colors of the canvas in GRB byte order, three bytes per LED. Writes from effects go
+	 * directly to this buffer.
+	 *
+	 * @return Color buffer
+	 */
+	public byte[] getData()
+	{
+		return data;
+	}
+
+	/**
+	 * Copy the mapped ranges into their frames and submit them to the device writers. Frames are
+	 * copied, so rendering of the next frame can start as soon as this method returns.
+	 */
+	public synchronized void present()
+	{
+		long now = System.nanoTime();
+
+		for (int i = 0; i < segments.size(); i++)
+		{
+			Segment segment = segments.get(i);
+			LedFrame frame = segment.frame;
+
+			System.arraycopy(data, segment.offset * 3, frame.getReport(), LedFrame.DATA_OFFSET, frame.getLedCount() * 3);
+			frame.setTimestamp(now);
+			segment.blinkStick.getWriter().submit(frame);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.agileinnovative.blinkstick;
+
+/**
+ * Compares the output of every {@link EffectGenerator} with golden frames.
+ *
+ * Rainbow, Chase and Breathe depend on the time only. Fire and Twinkle keep state per LED, their
+ * frames are reproducible for the same sequence of times. Frames are 8 LEDs in GRB hex.
+ *
+ * Usage: java com.agileinnovative.blinkstick.EffectGeneratorTest
+ */
+public class EffectGeneratorTest {
+
+	private static final int SIZE = 8;
+
+	public static void main(String[] args)
+	{
+		check("Rainbow", new EffectGenerator.Rainbow(SIZE, 1, 1000), new long[] { 999, 0, 250 }, new String[] {
+				"00ff06b9ff00ff8600ff0039ff00f94600ff0079ff00ffc6",
+				"00ff00bfff00ff8000ff003fff00ff4000ff007fff00ffc0",
+				"ff8000ff003fff00ff4000ff007fff00ffc000ff00bfff00" });
+
+		check("Chase", new EffectGenerator.Chase(SIZE, 0xFF0000, 0x000010, 3, 800), new long[] { 300, 0, 799 }, new String[] {
+				"00001000550000aa0000ff00000010000010000010000010",
+				"00ff0000001000001000001000001000001000550000aa00",
+				"00001000001000001000001000001000550000aa0000ff00" });
+
+		check("Breathe", new EffectGenerator.Breathe(SIZE, 0x40FF80, 2000), new long[] { 1000, 0, 500 }, new String[] {
+				"ff4080ff4080ff4080ff4080ff4080ff4080ff4080ff4080",
+				"000000000000000000000000000000000000000000000000",
+				"802040802040802040802040802040802040802040802040" });
+
+		long[] sequence = { 0, 10, 20, 30, 100, 1000 };
+
+		check("Fire", new EffectGenerator.Fire(SIZE, 40, 10), sequence, new String[] {
+				"000000000000000000000000000000000000000000000000",
+				"00ae00007e0077ff0000db0000e100005d0000750000f300",
+				"00cc0000ab0080ff00b9ff0000db0077ff009bff0000f300",
+				"2cff0000e70053ff009eff0071ff00b0ff0041ff0000cf00",
+				"e0ff00ffff2811ff00d1ff00c8ff00ffff7cecff00ffff1c",
+				"05ff007dff0050ff00ffff76ffff0a89ff0047ff0017ff00" });
+
+		check("Twinkle", new EffectGenerator.Twinkle(SIZE, EffectGenerator.getRainbowPalette(), 64, 32, 10), sequence, new String[] {
+				"000000000000000000000000000000000000000000000000",
+				"000000002bff0000000000000000005e00ffddff00000000",
+				"fff8003a00ff000000000000a000ff5200dfc1df00ff0099",
+				"dfd9003200df0000000000008c00df4600bfa7ff00ffc200",
+				"000000000000a1ff00000000000000000000141f001f1800",
+				"fff200000000adff00000000000000000000ff00f3000000" });
+
+		// Ranges rendered separately, as on several threads, give the same frames
+		checkSplit("Fire", new EffectGenerator.Fire(SIZE, 40, 10), new EffectGenerator.Fire(SIZE, 40, 10), sequence);
+		checkSplit("Twinkle", new EffectGenerator.Twinkle(SIZE, EffectGenerator.getRainbowPalette(), 64, 32, 10),
+				new EffectGenerator.Twinkle(SIZE, EffectGenerator.getRainbowPalette(), 64, 32, 10), sequence);
+
+		int[] palette = EffectGenerator.getRainbowPalette();
+		palette[0] = 0x123456;
+		if (EffectGenerator.getRainbowPalette()[0] == 0x123456)
+		{
+			throw new AssertionError("Palette copy changed the shared palette");
+		}
+
+		System.out.println("EffectGeneratorTest passed");
+	}
+
+	private static void check(String name, EffectGenerator generator, long[] ms, String[] expected)
+	{
+		LedFrame frame = new LedFrame(SIZE);
+
+		for (int i = 0; i < ms.length; i++)
+		{
+			generator.render(frame, ms[i] * 1000000L);
+
+			String actual = hex(frame.getReport(), LedFrame.DATA_OFFSET, SIZE);
+			if (!actual.equals(expected[i]))
+			{
+				throw new AssertionError(name + " at " + ms[i] + " ms: expected " + expected[i] + " got " + actual);
+			}
+		}
+	}
+
+	private static void checkSplit(String name, EffectGenerator whole, EffectGenerator split, long[] ms)
+	{
+		byte[] expected = new byte[SIZE * 3];
+		byte[] actual = new byte[SIZE * 3];
+
+		for (int i = 0; i < ms.length; i++)
+		{
+			long time = ms[i] * 1000000L;
+			whole.render(expected, 0, 0, SIZE, time);
+			split.render(actual, 0, SIZE / 2, SIZE, time);
+			split.render(actual, 0, 0, SIZE / 2, time);
+
+			if (!hex(expected, 0, SIZE).equals(hex(actual, 0, SIZE)))
+			{
+				throw new AssertionError(name + " split at " + ms[i] + " ms: expected " + hex(expected, 0, SIZE) + " got " + hex(actual, 0, SIZE));
+			}
+		}
+	}
+
+	private static String hex(byte[] data, int offset, int ledCount)
+	{
+		StringBuilder result = new StringBuilder();
+		for (int i = offset; i < offset + ledCount * 3; i++)
+		{
+			result.append(Character.forDigit((data[i] >> 4) & 0xF, 16));
+			result.append(Character.forDigit(data[i] & 0xF, 16));
+		}
+		return result.toString();
+	}
+}
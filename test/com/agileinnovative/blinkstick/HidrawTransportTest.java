@@ -0,0 +1,199 @@
+package com.agileinnovative.blinkstick;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Checks {@link HidrawTransport} against a fake sysfs and /dev tree of regular files.
+ *
+ * Usage: java com.agileinnovative.blinkstick.HidrawTransportTest
+ */
+public class HidrawTransportTest {
+
+	public static void main(String[] args) throws IOException
+	{
+		File root = File.createTempFile("hidraw", "");
+		root.delete();
+
+		try
+		{
+			File sys = new File(root, "sys");
+			File dev = new File(root, "dev");
+
+			device(sys, dev, "hidraw0", "HID_ID=0003:000020A0:000041E5\nHID_NAME=Agile Innovative Ltd BlinkStick\nHID_UNIQ=BS000001-3.0\n");
+			device(sys, dev, "hidraw1", "HID_ID=0003:0000046D:0000C52B\nHID_NAME=Logitech USB Receiver\n");
+			device(sys, dev, "hidraw2", "HID_ID=garbage\n");
+
+			findNodes(sys, dev);
+			sendWithoutBinding(sys, dev);
+			sendWithBinding(sys, dev);
+			requireBinding();
+		}
+		finally
+		{
+			delete(root);
+		}
+
+		System.out.println("HidrawTransportTest passed");
+	}
+
+	private static void findNodes(File sys, File dev)
+	{
+		File[] nodes = HidrawTransport.findNodes(sys, dev);
+		check(nodes.length == 1, "one BlinkStick found, got " + Arrays.toString(nodes));
+		check(nodes[0].equals(new File(dev, "hidraw0")), "node of hidraw0, got " + nodes[0]);
+
+		check(HidrawTransport.findNodes(new File(sys, "missing"), dev).length == 0, "no nodes without sysfs");
+	}
+
+	private static void sendWithoutBinding(File sys, File dev) throws IOException
+	{
+		File node = new File(dev, "hidraw0");
+		HidrawTransport transport = new HidrawTransport(node, new File(sys, "hidraw0"), null);
+
+		try
+		{
+			check("BS000001-3.0".equals(transport.getSerial()), "serial from uevent, got " + transport.getSerial());
+			check("Agile Innovative Ltd BlinkStick".equals(transport.getProduct()), "product from uevent, got " + transport.getProduct());
+
+			byte[] report = { 1, 10, 20, 30, 99 };
+			check(transport.sendFeatureReport(report, 4) == 4, "four bytes sent");
+			check(transport.getFeatureReport(report, 4) < 0, "reading needs a binding");
+		}
+		finally
+		{
+			transport.close();
+		}
+
+		check(Arrays.equals(read(node), new byte[] { 1, 10, 20, 30 }), "report written to file, got " + Arrays.toString(read(node)));
+	}
+
+	private static void sendWithBinding(File sys, File dev) throws IOException
+	{
+		final byte[][] sent = new byte[1][];
+		HidrawTransport.FeatureIo io = new HidrawTransport.FeatureIo() {
+			public int setFeature(FileDescriptor fd, ByteBuffer report, int length) {
+				check(report.isDirect() && report.position() == 0, "direct buffer at position 0");
+				sent[0] = new byte[length];
+				report.get(sent[0]);
+				return length;
+			}
+
+			public int getFeature(FileDescriptor fd, ByteBuffer report, int length) {
+				check(report.get(0) == 2, "report id passed in");
+				report.put(1, (byte) 42);
+				return length;
+			}
+		};
+
+		File node = new File(dev, "hidraw0");
+		new FileOutputStream(node).close();
+		HidrawTransport transport = new HidrawTransport(node, new File(sys, "hidraw0"), io);
+
+		try
+		{
+			byte[] report = { 5, 0, 3, 1, 2, 3 };
+			check(transport.sendFeatureReport(report, report.length) == report.length, "all bytes sent");
+			check(Arrays.equals(sent[0], report), "report passed to binding, got " + Arrays.toString(sent[0]));
+
+			byte[] received = { 2, 0, 0 };
+			check(transport.getFeatureReport(received, received.length) == received.length, "all bytes read");
+			check(received[1] == 42, "report read through binding");
+
+			check(transport.sendFeatureReport(new byte[ReportTrace.MAX_REPORT_SIZE + 1], ReportTrace.MAX_REPORT_SIZE + 1) < 0, "oversized report rejected");
+		}
+		finally
+		{
+			transport.close();
+		}
+
+		check(node.length() == 0, "nothing written to the node with a binding");
+	}
+
+	private static void requireBinding() throws IOException
+	{
+		File node = new File("/dev/null");
+		if (!node.exists())
+		{
+			return;
+		}
+
+		try
+		{
+			new HidrawTransport(node, new File("/sys/class/hidraw/null"), null).close();
+			check(false, "device node opened without binding");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+
+		try
+		{
+			HidrawTransport.openAll(null);
+			check(false, "openAll without binding");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+	}
+
+	private static void device(File sys, File dev, String name, String uevent) throws IOException
+	{
+		File dir = new File(sys, name + "/device");
+		dir.mkdirs();
+		dev.mkdirs();
+
+		FileOutputStream out = new FileOutputStream(new File(dir, "uevent"));
+		try
+		{
+			out.write(uevent.getBytes("US-ASCII"));
+		}
+		finally
+		{
+			out.close();
+		}
+
+		new FileOutputStream(new File(dev, name)).close();
+	}
+
+	private static byte[] read(File file) throws IOException
+	{
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try
+		{
+			byte[] data = new byte[(int) in.length()];
+			in.readFully(data);
+			return data;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (int i = 0; i < children.length; i++)
+			{
+				delete(children[i]);
+			}
+		}
+		file.delete();
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+}